@@ -0,0 +1,138 @@
+/**
+ * Copyright Khmelenko Lab
+ * Author: Dmytro Khmelenko
+ */
+package com.network;
+
+import java.util.Collections;
+import java.util.List;
+
+import android.content.Context;
+
+import com.store.AppSettings;
+import com.store.CitiesCache;
+import com.store.City;
+import com.store.SuggestionTrie;
+
+/**
+ * Provides the autocomplete suggestions for the user input. Suggestions are
+ * taken from the results of the previous queries or from the cache when
+ * possible, otherwise they are requested from the network
+ * 
+ * @author Dmytro Khmelenko
+ * 
+ */
+public final class AutocompleteEngine {
+
+	private final Context iContext;
+
+	/** Cache of the responses */
+	private final CitiesCache iCache;
+
+	/** Results of the previous queries */
+	private final SuggestionTrie iTrie = new SuggestionTrie();
+
+	/**
+	 * Constructor
+	 * 
+	 * @param aContext
+	 *            Context
+	 */
+	public AutocompleteEngine(Context aContext) {
+		iContext = aContext.getApplicationContext();
+		iCache = CitiesCache.getInstance(iContext);
+	}
+
+	/**
+	 * Finds the cities matched with the user input
+	 * 
+	 * @param aInput
+	 *            User input
+	 * @return List of cities. Empty list, if nothing is found or an error
+	 *         occurred
+	 */
+	public List<City> findCities(String aInput) {
+		List<City> cities = findLocalCities(aInput);
+		if (cities == null) {
+			cities = requestCities(aInput, new NetworkEngine());
+		}
+		return cities;
+	}
+
+	/**
+	 * Finds the cities matched with the user input without network access
+	 * 
+	 * @param aInput
+	 *            User input
+	 * @return List of cities or null, if the input can't be answered locally
+	 */
+	public List<City> findLocalCities(String aInput) {
+		// try to answer from the previous queries
+		List<City> cities = iTrie.find(aInput);
+		if (cities != null) {
+			return cities;
+		}
+
+		// check cached responses
+		String response = iCache.get(aInput);
+		if (response != null) {
+			cities = PacketParser.parseCities(response);
+			iTrie.put(aInput, cities);
+		}
+
+		return cities;
+	}
+
+	/**
+	 * Requests the cities matched with the user input from the network
+	 * 
+	 * @param aInput
+	 *            User input
+	 * @param aNetwork
+	 *            Network engine for the request. It can be used for aborting
+	 *            the request
+	 * @return List of cities. Empty list, if nothing is found or an error
+	 *         occurred
+	 */
+	public List<City> requestCities(String aInput, NetworkEngine aNetwork) {
+		if (!NetworkEngine.isNetworkAvailable(iContext)) {
+			return Collections.emptyList();
+		}
+
+		// retrieve API key
+		String apiKey = AppSettings.getApiKey(iContext);
+
+		// make request and receive the response
+		String response = aNetwork.requestCities(aInput, apiKey);
+
+		// response status is ignored. Empty list will be,
+		// if an error occurred
+		List<City> cities = PacketParser.parseCities(response);
+
+		// only the meaningful responses are cached
+		if (!cities.isEmpty()) {
+			iCache.put(aInput, response);
+			iTrie.put(aInput, cities);
+		}
+
+		return cities;
+	}
+
+	/**
+	 * Gets the responses cache
+	 * 
+	 * @return Cache of the responses
+	 */
+	public CitiesCache getCache() {
+		return iCache;
+	}
+
+	/**
+	 * Gets the trie of the previous queries
+	 * 
+	 * @return Trie of the previous queries
+	 */
+	public SuggestionTrie getTrie() {
+		return iTrie;
+	}
+}
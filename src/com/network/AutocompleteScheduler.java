@@ -0,0 +1,200 @@
+/**
+ * Copyright Khmelenko Lab
+ * Author: Dmytro Khmelenko
+ */
+package com.network;
+
+import java.util.List;
+
+import android.os.SystemClock;
+
+import com.store.City;
+
+/**
+ * Schedules the autocomplete requests of a single input field. Requests are
+ * debounced: the network is requested only when the input was not changed for
+ * the debounce time. Superseded inputs are skipped and the request in flight
+ * is aborted, when newer input arrives
+ * 
+ * @author Dmytro Khmelenko
+ * 
+ */
+public final class AutocompleteScheduler {
+
+	/** Default debounce time in milliseconds */
+	public static final long DEFAULT_DEBOUNCE = 300;
+
+	private final AutocompleteEngine iEngine;
+
+	/** Debounce time in milliseconds */
+	private final long iDebounce;
+
+	private final Object iLock = new Object();
+
+	/** The latest user input */
+	private String iLatestInput;
+
+	/** Input of the request in flight */
+	private String iActiveInput;
+
+	/** Network engine executing the request in flight */
+	private NetworkEngine iActiveNetwork;
+
+	// statistics
+	private int iSkippedRequests;
+	private int iAbortedRequests;
+	private int iExecutedRequests;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param aEngine
+	 *            Engine for retrieving suggestions
+	 * @param aDebounce
+	 *            Debounce time in milliseconds
+	 */
+	public AutocompleteScheduler(AutocompleteEngine aEngine, long aDebounce) {
+		iEngine = aEngine;
+		iDebounce = aDebounce;
+	}
+
+	/**
+	 * Notifies about changed user input. Aborts the request in flight, if it's
+	 * made for another input
+	 * 
+	 * @param aInput
+	 *            New user input
+	 */
+	public void inputChanged(String aInput) {
+		synchronized (iLock) {
+			iLatestInput = aInput;
+			iLock.notifyAll();
+
+			if (iActiveNetwork != null && !aInput.equals(iActiveInput)) {
+				iActiveNetwork.abort();
+				iActiveNetwork = null;
+				iAbortedRequests++;
+			}
+		}
+	}
+
+	/**
+	 * Finds the cities matched with the input. Blocks the calling thread for
+	 * the debounce time, if the input can't be answered locally
+	 * 
+	 * @param aInput
+	 *            User input
+	 * @return List of cities or null, if the input was superseded by the newer
+	 *         one
+	 */
+	public List<City> request(String aInput) {
+		// local answers are fast, they don't need any debounce
+		List<City> cities = iEngine.findLocalCities(aInput);
+		if (cities != null) {
+			return cities;
+		}
+
+		NetworkEngine network = new NetworkEngine();
+		synchronized (iLock) {
+			if (!waitForQuietInput(aInput)) {
+				iSkippedRequests++;
+				return null;
+			}
+
+			iActiveInput = aInput;
+			iActiveNetwork = network;
+			iExecutedRequests++;
+		}
+
+		try {
+			cities = iEngine.requestCities(aInput, network);
+		} finally {
+			synchronized (iLock) {
+				if (iActiveNetwork == network) {
+					iActiveNetwork = null;
+					iActiveInput = null;
+				} else {
+					// request was aborted
+					cities = null;
+				}
+			}
+		}
+
+		return cities;
+	}
+
+	/**
+	 * Waits until the input is not changed for the debounce time. Should be
+	 * called with the lock held
+	 * 
+	 * @param aInput
+	 *            Input for the request
+	 * @return True, if the input is still the latest one
+	 */
+	private boolean waitForQuietInput(String aInput) {
+		long deadline = SystemClock.uptimeMillis() + iDebounce;
+		long remaining = iDebounce;
+
+		while (remaining > 0) {
+			try {
+				iLock.wait(remaining);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+
+			// newer input arrived
+			if (iLatestInput != null && !iLatestInput.equals(aInput)) {
+				return false;
+			}
+			remaining = deadline - SystemClock.uptimeMillis();
+		}
+
+		return iLatestInput == null || iLatestInput.equals(aInput);
+	}
+
+	/**
+	 * Gets the number of requests saved by the scheduler: skipped superseded
+	 * inputs and aborted requests
+	 * 
+	 * @return Number of saved requests
+	 */
+	public int getSavedRequests() {
+		synchronized (iLock) {
+			return iSkippedRequests + iAbortedRequests;
+		}
+	}
+
+	/**
+	 * Gets the number of skipped superseded inputs
+	 * 
+	 * @return Number of skipped inputs
+	 */
+	public int getSkippedRequests() {
+		synchronized (iLock) {
+			return iSkippedRequests;
+		}
+	}
+
+	/**
+	 * Gets the number of aborted requests
+	 * 
+	 * @return Number of aborted requests
+	 */
+	public int getAbortedRequests() {
+		synchronized (iLock) {
+			return iAbortedRequests;
+		}
+	}
+
+	/**
+	 * Gets the number of requests sent to the network
+	 * 
+	 * @return Number of executed requests
+	 */
+	public int getExecutedRequests() {
+		synchronized (iLock) {
+			return iExecutedRequests;
+		}
+	}
+}
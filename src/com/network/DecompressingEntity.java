@@ -0,0 +1,253 @@
+/**
+ * Copyright Khmelenko Lab
+ * Author: Dmytro Khmelenko
+ */
+package com.network;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.HttpEntityWrapper;
+
+/**
+ * Entity which decompresses gzip or deflate encoded content on the fly and
+ * counts the bytes before and after decompression
+ * 
+ * @author Dmytro Khmelenko
+ * 
+ */
+final class DecompressingEntity extends HttpEntityWrapper {
+
+	/** Gzip content encoding */
+	static final String ENCODING_GZIP = "gzip";
+
+	/** Deflate content encoding */
+	static final String ENCODING_DEFLATE = "deflate";
+
+	private static final int BUFFER_SIZE = 4096;
+
+	/** Content encoding of the wrapped entity */
+	private final String iEncoding;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param aEntity
+	 *            Wrapped entity
+	 * @param aEncoding
+	 *            Content encoding. Null for not encoded content
+	 */
+	DecompressingEntity(HttpEntity aEntity, String aEncoding) {
+		super(aEntity);
+		iEncoding = aEncoding;
+	}
+
+	/**
+	 * Wraps the entity, if it's required
+	 * 
+	 * @param aEntity
+	 *            Entity
+	 * @return Wrapped entity
+	 */
+	static HttpEntity wrap(HttpEntity aEntity) {
+		String encoding = null;
+		Header header = aEntity.getContentEncoding();
+		if (header != null) {
+			String value = header.getValue().trim();
+			if (ENCODING_GZIP.equalsIgnoreCase(value)
+					|| ENCODING_DEFLATE.equalsIgnoreCase(value)) {
+				encoding = value;
+			}
+		}
+
+		TransferStats.responseReceived(encoding != null);
+		return new DecompressingEntity(aEntity, encoding);
+	}
+
+	/*
+	 * @see org.apache.http.entity.HttpEntityWrapper#getContent()
+	 */
+	@Override
+	public InputStream getContent() throws IOException {
+		InputStream content = wrappedEntity.getContent();
+		if (iEncoding == null) {
+			// not compressed content is received and decoded at once
+			return new CountingInputStream(content, true, true);
+		}
+
+		InputStream raw = new CountingInputStream(content, true, false);
+		InputStream decoded;
+		if (ENCODING_GZIP.equalsIgnoreCase(iEncoding)) {
+			decoded = new GZIPInputStream(raw, BUFFER_SIZE);
+		} else {
+			decoded = inflate(raw);
+		}
+
+		return new CountingInputStream(decoded, false, true);
+	}
+
+	/**
+	 * Wraps the deflate encoded stream. Some servers send raw deflate data
+	 * instead of the zlib format, so the format is detected by the header
+	 * 
+	 * @param aStream
+	 *            Deflate encoded stream
+	 * @return Decoded stream
+	 * @throws IOException
+	 */
+	private static InputStream inflate(InputStream aStream) throws IOException {
+		PushbackInputStream stream = new PushbackInputStream(aStream, 2);
+		byte[] header = new byte[2];
+		int read = 0;
+		while (read < header.length) {
+			int count = stream.read(header, read, header.length - read);
+			if (count == -1) {
+				break;
+			}
+			read += count;
+		}
+		stream.unread(header, 0, read);
+
+		// zlib header: deflate method and the check bits
+		int first = header[0] & 0xff;
+		int second = header[1] & 0xff;
+		boolean zlib = read == header.length && (first & 0x0f) == 8
+				&& ((first << 8) | second) % 31 == 0;
+
+		final Inflater inflater = new Inflater(!zlib);
+		return new InflaterInputStream(stream, inflater, BUFFER_SIZE) {
+
+			@Override
+			public void close() throws IOException {
+				// own inflater is not released by the stream
+				super.close();
+				inflater.end();
+			}
+		};
+	}
+
+	/*
+	 * @see org.apache.http.entity.HttpEntityWrapper#getContentLength()
+	 */
+	@Override
+	public long getContentLength() {
+		if (iEncoding != null) {
+			// length of the decompressed content is unknown
+			return -1;
+		}
+		return super.getContentLength();
+	}
+
+	/*
+	 * @see org.apache.http.entity.HttpEntityWrapper#getContentEncoding()
+	 */
+	@Override
+	public Header getContentEncoding() {
+		if (iEncoding != null) {
+			// content is provided already decoded
+			return null;
+		}
+		return super.getContentEncoding();
+	}
+
+	/*
+	 * @see
+	 * org.apache.http.entity.HttpEntityWrapper#writeTo(java.io.OutputStream)
+	 */
+	@Override
+	public void writeTo(OutputStream aOutStream) throws IOException {
+		InputStream in = getContent();
+		try {
+			byte[] buffer = new byte[BUFFER_SIZE];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				aOutStream.write(buffer, 0, read);
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Stream which counts the read bytes
+	 * 
+	 * @author Dmytro Khmelenko
+	 * 
+	 */
+	private static final class CountingInputStream extends FilterInputStream {
+
+		/** True, if the bytes are counted as received from the network */
+		private final boolean iReceived;
+
+		/** True, if the bytes are counted as decoded */
+		private final boolean iDecoded;
+
+		/**
+		 * Constructor
+		 * 
+		 * @param aStream
+		 *            Wrapped stream
+		 * @param aReceived
+		 *            True, if the read bytes are received from the network
+		 * @param aDecoded
+		 *            True, if the read bytes are already decoded
+		 */
+		CountingInputStream(InputStream aStream, boolean aReceived,
+				boolean aDecoded) {
+			super(aStream);
+			iReceived = aReceived;
+			iDecoded = aDecoded;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int value = super.read();
+			if (value != -1) {
+				count(1);
+			}
+			return value;
+		}
+
+		@Override
+		public int read(byte[] aBuffer, int aOffset, int aCount)
+				throws IOException {
+			int read = super.read(aBuffer, aOffset, aCount);
+			if (read > 0) {
+				count(read);
+			}
+			return read;
+		}
+
+		@Override
+		public long skip(long aCount) throws IOException {
+			long skipped = super.skip(aCount);
+			if (skipped > 0) {
+				count(skipped);
+			}
+			return skipped;
+		}
+
+		/**
+		 * Counts the bytes
+		 * 
+		 * @param aBytes
+		 *            Number of bytes
+		 */
+		private void count(long aBytes) {
+			if (iReceived) {
+				TransferStats.addReceivedBytes(aBytes);
+			}
+			if (iDecoded) {
+				TransferStats.addDecodedBytes(aBytes);
+			}
+		}
+	}
+}
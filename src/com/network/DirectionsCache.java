@@ -0,0 +1,231 @@
+/**
+ * Copyright Khmelenko Lab
+ * Author: Dmytro Khmelenko
+ */
+package com.network;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import android.content.Context;
+import android.os.AsyncTask;
+
+import com.store.DbEngine;
+import com.store.Route;
+import com.store.RouteRepository;
+import com.store.RouteSpatialIndex;
+import com.store.TravelMode;
+
+/**
+ * Provides the directions. Stored results of the previous searches are
+ * returned when possible, also without network connection. Stale results are
+ * returned immediately and refreshed in background
+ * 
+ * @author Dmytro Khmelenko
+ * 
+ */
+public final class DirectionsCache {
+
+	/** Time in milliseconds, while the stored result is fresh */
+	public static final long FRESH_TIME = 60 * 60 * 1000;
+
+	/** Keys of the searches refreshed in background */
+	private static final Set<String> sRefreshing = new HashSet<String>();
+
+	private final Context iContext;
+
+	private final DbEngine iDb;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param aContext
+	 *            Context
+	 */
+	public DirectionsCache(Context aContext) {
+		iContext = aContext.getApplicationContext();
+		iDb = DbEngine.getInstance(iContext);
+	}
+
+	/**
+	 * Finds the directions. Stored result is returned, if exists. It's
+	 * refreshed in background, when it's stale. Otherwise the directions are
+	 * requested from the network
+	 * 
+	 * @param aFrom
+	 *            Origin place
+	 * @param aTo
+	 *            Destination place
+	 * @param aTravelMode
+	 *            Travel mode or {@link TravelMode#ALL}
+	 * @return Search result
+	 */
+	public SearchResult findDirections(String aFrom, String aTo,
+			String aTravelMode) {
+		long searchId = iDb.findSearch(aFrom, aTo, aTravelMode);
+		if (searchId == DbEngine.NO_SEARCH) {
+			return requestDirections(aFrom, aTo, aTravelMode);
+		}
+
+		long age = System.currentTimeMillis() - iDb.getSearchTime(searchId);
+		if (age > FRESH_TIME) {
+			refreshDirections(aFrom, aTo, aTravelMode);
+		}
+		return new SearchResult(searchId, null, true);
+	}
+
+	/**
+	 * Requests the directions from the network and stores them. All modes of
+	 * {@link TravelMode#ALL} are requested in parallel
+	 * 
+	 * @param aFrom
+	 *            Origin place
+	 * @param aTo
+	 *            Destination place
+	 * @param aTravelMode
+	 *            Travel mode or {@link TravelMode#ALL}
+	 * @return Search result. Status is null, if the connection failed
+	 */
+	public SearchResult requestDirections(String aFrom, String aTo,
+			String aTravelMode) {
+		if (!NetworkEngine.isNetworkAvailable(iContext)) {
+			return new SearchResult(DbEngine.NO_SEARCH, null, false);
+		}
+
+		String[] modes = { aTravelMode };
+		if (TravelMode.ALL.equals(aTravelMode)) {
+			modes = TravelMode.ALL_MODES;
+		}
+
+		// all modes are requested and parsed in parallel, each one can be
+		// cancelled through its future. The response is parsed while it's
+		// being received
+		List<Future<DirectionsResult>> requests = new ArrayList<Future<DirectionsResult>>();
+		for (String mode : modes) {
+			requests.add(NetworkEngine.fetchDirectionsAsync(aFrom, aTo, mode,
+					NetworkEngine.DEFAULT_REQUEST_TIMEOUT, null));
+		}
+
+		List<DirectionsResult> results = waitForResults(requests);
+
+		// status of the successful response, if any of them succeed. The
+		// result is complete, if every mode got the definitive response
+		ResponseStatus status = null;
+		List<Route> routes = new ArrayList<Route>();
+		boolean complete = results.size() == modes.length;
+		for (DirectionsResult result : results) {
+			if (result.isSuccess()) {
+				status = result.getStatus();
+				routes.addAll(result.getRoutes());
+			} else if (status == null) {
+				status = result.getStatus();
+			}
+			complete &= result.getStatus() != null
+					&& result.getStatus().isDefinitive();
+		}
+
+		long searchId = DbEngine.NO_SEARCH;
+		if (status != null && status.isSuccess()) {
+			// incomplete result doesn't replace the stored one
+			if (!complete) {
+				searchId = iDb.findSearch(aFrom, aTo, aTravelMode);
+				if (searchId != DbEngine.NO_SEARCH) {
+					return new SearchResult(searchId, status, true);
+				}
+			}
+
+			// routes of all modes are stored at once
+			List<Long> evicted = new ArrayList<Long>();
+			searchId = iDb.storeSearch(aFrom, aTo, aTravelMode, routes,
+					complete, evicted);
+
+			// cached routes of the refreshed and the evicted searches are dropped
+			RouteRepository repository = RouteRepository.getInstance(iContext);
+			repository.invalidate(searchId);
+			for (long id : evicted) {
+				repository.invalidate(id);
+			}
+			RouteSpatialIndex.getInstance(iContext).invalidate();
+		}
+		return new SearchResult(searchId, status, false);
+	}
+
+	/**
+	 * Refreshes the stored directions in background. Does nothing, if the
+	 * network is not available or the search is already refreshed
+	 * 
+	 * @param aFrom
+	 *            Origin place
+	 * @param aTo
+	 *            Destination place
+	 * @param aTravelMode
+	 *            Travel mode or {@link TravelMode#ALL}
+	 */
+	public void refreshDirections(final String aFrom, final String aTo,
+			final String aTravelMode) {
+		if (!NetworkEngine.isNetworkAvailable(iContext)) {
+			return;
+		}
+
+		// the same stored search is refreshed once
+		final String key = DbEngine.getSearchKey(aFrom, aTo, aTravelMode);
+		synchronized (sRefreshing) {
+			if (!sRefreshing.add(key)) {
+				return;
+			}
+		}
+
+		AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					requestDirections(aFrom, aTo, aTravelMode);
+				} finally {
+					synchronized (sRefreshing) {
+						sRefreshing.remove(key);
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Waits for the results of the requests. Cancels all of them, if the
+	 * waiting thread is interrupted
+	 * 
+	 * @param aRequests
+	 *            Requests in flight
+	 * @return List of the received results. Failed requests are skipped
+	 */
+	private static List<DirectionsResult> waitForResults(
+			List<Future<DirectionsResult>> aRequests) {
+		List<DirectionsResult> results = new ArrayList<DirectionsResult>();
+		for (Future<DirectionsResult> request : aRequests) {
+			try {
+				DirectionsResult result = request.get();
+				if (result != null) {
+					results.add(result);
+				}
+			} catch (CancellationException e) {
+				// timed out, skip it
+			} catch (ExecutionException e) {
+				e.printStackTrace();
+			} catch (InterruptedException e) {
+				// the caller is cancelled, cancel the requests as well
+				for (Future<DirectionsResult> pending : aRequests) {
+					pending.cancel(true);
+				}
+				Thread.currentThread().interrupt();
+				return Collections.emptyList();
+			}
+		}
+		return results;
+	}
+}
@@ -0,0 +1,69 @@
+/**
+ * Copyright Khmelenko Lab
+ * Author: Dmytro Khmelenko
+ */
+package com.network;
+
+import java.util.Collections;
+import java.util.List;
+
+import com.store.Route;
+
+/**
+ * Contains the result of the directions request: response status and the
+ * parsed routes
+ * 
+ * @author Dmytro Khmelenko
+ * 
+ */
+public class DirectionsResult {
+
+	/** Response status */
+	private final ResponseStatus iStatus;
+
+	/** Parsed routes */
+	private final List<Route> iRoutes;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param aStatus
+	 *            Response status
+	 * @param aRoutes
+	 *            Parsed routes
+	 */
+	DirectionsResult(ResponseStatus aStatus, List<Route> aRoutes) {
+		iStatus = aStatus;
+		if (aRoutes == null) {
+			aRoutes = Collections.emptyList();
+		}
+		iRoutes = aRoutes;
+	}
+
+	/**
+	 * Gets response status
+	 * 
+	 * @return Response status or null, if the response can't be parsed
+	 */
+	public ResponseStatus getStatus() {
+		return iStatus;
+	}
+
+	/**
+	 * Gets parsed routes
+	 * 
+	 * @return List of routes. Empty list, if the request is not succeed
+	 */
+	public List<Route> getRoutes() {
+		return iRoutes;
+	}
+
+	/**
+	 * Checks whether the request succeed or not
+	 * 
+	 * @return True, if the status is parsed and it's successful
+	 */
+	public boolean isSuccess() {
+		return iStatus != null && iStatus.isSuccess();
+	}
+}
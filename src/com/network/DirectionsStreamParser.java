@@ -0,0 +1,516 @@
+/**
+ * Copyright Khmelenko Lab
+ * Author: Dmytro Khmelenko
+ */
+package com.network;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import android.location.Location;
+import android.location.LocationManager;
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import com.store.Route;
+import com.store.RouteBounds;
+import com.store.RouteDetails;
+import com.store.RouteStep;
+
+/**
+ * Streaming parser of the directions response. Reads the routes, legs and
+ * steps directly from the stream and fills the model objects on the fly, so
+ * neither the whole response string nor the JSON tree are kept in memory
+ * 
+ * @author Dmytro Khmelenko
+ * 
+ */
+public final class DirectionsStreamParser {
+
+	private static final String CHARSET = "UTF-8";
+
+	// keys for Routes
+	private static final String KEY_STATUS = "status";
+	private static final String KEY_ROUTES = "routes";
+	private static final String KEY_LEGS = "legs";
+	private static final String KEY_STEPS = "steps";
+	private static final String KEY_DISTANCE = "distance";
+	private static final String KEY_DURATION = "duration";
+	private static final String KEY_HTML_INSTRUCTIONS = "html_instructions";
+	private static final String KEY_TRAVEL_MODE = "travel_mode";
+	private static final String KEY_POLYLINE = "polyline";
+	private static final String KEY_VALUE = "value";
+	private static final String KEY_POINTS = "points";
+	private static final String KEY_START_LOCATION = "start_location";
+	private static final String KEY_END_LOCATION = "end_location";
+	private static final String KEY_LATITUDE = "lat";
+	private static final String KEY_LONGITUDE = "lng";
+	private static final String KEY_START_ADDRESS = "start_address";
+	private static final String KEY_END_ADDRESS = "end_address";
+	private static final String KEY_SUMMARY = "summary";
+	private static final String KEY_COPYRIGHTS = "copyrights";
+	private static final String KEY_OVERVIEW_POLYLINE = "overview_polyline";
+	private static final String KEY_BOUNDS = "bounds";
+	private static final String KEY_NORTHEAST = "northeast";
+	private static final String KEY_SOUTHWEST = "southwest";
+	private static final String KEY_WARNINGS = "warnings";
+
+	/**
+	 * Denied constructor
+	 */
+	private DirectionsStreamParser() {
+	}
+
+	/**
+	 * Parses the directions response from the stream
+	 * 
+	 * @param aStream
+	 *            Response stream. It's not closed by the parser
+	 * @return Directions result
+	 * @throws IOException
+	 *             If reading or parsing error occurred
+	 */
+	public static DirectionsResult parse(InputStream aStream)
+			throws IOException {
+		JsonReader reader = new JsonReader(new InputStreamReader(aStream,
+				CHARSET));
+
+		ResponseStatus status = null;
+		List<Route> routes = Collections.emptyList();
+
+		try {
+			reader.beginObject();
+			while (reader.hasNext()) {
+				String name = reader.nextName();
+				if (KEY_STATUS.equals(name)) {
+					status = new ResponseStatus(readString(reader));
+				} else if (KEY_ROUTES.equals(name)) {
+					routes = readRoutes(reader);
+				} else {
+					reader.skipValue();
+				}
+			}
+			reader.endObject();
+		} catch (IllegalStateException e) {
+			// unexpected token type
+			throw new IOException(e.toString());
+		}
+
+		// routes are available only for the successful response
+		if (status == null || !status.isSuccess()) {
+			routes = Collections.emptyList();
+		}
+
+		return new DirectionsResult(status, routes);
+	}
+
+	/**
+	 * Reads the array of the routes
+	 * 
+	 * @param aReader
+	 *            Reader
+	 * @return List of routes
+	 * @throws IOException
+	 *             If parsing error occurred
+	 */
+	private static List<Route> readRoutes(JsonReader aReader)
+			throws IOException {
+		List<Route> routes = new ArrayList<Route>();
+
+		aReader.beginArray();
+		while (aReader.hasNext()) {
+			routes.add(readRoute(aReader));
+		}
+		aReader.endArray();
+
+		if (routes.isEmpty()) {
+			routes = Collections.emptyList();
+		}
+
+		return routes;
+	}
+
+	/**
+	 * Reads single route
+	 * 
+	 * @param aReader
+	 *            Reader
+	 * @return Route object
+	 * @throws IOException
+	 *             If parsing error occurred
+	 */
+	private static Route readRoute(JsonReader aReader) throws IOException {
+		Route route = new Route();
+		route.iEncodedPolyline = "";
+
+		Location northEast = null;
+		Location southWest = null;
+		RouteDetails details = new RouteDetails();
+
+		aReader.beginObject();
+		while (aReader.hasNext()) {
+			String name = aReader.nextName();
+			if (KEY_LEGS.equals(name)) {
+				readLegs(aReader, route);
+			} else if (KEY_OVERVIEW_POLYLINE.equals(name)) {
+				route.iEncodedPolyline = readStringFromObject(aReader,
+						KEY_POINTS);
+			} else if (KEY_BOUNDS.equals(name)) {
+				aReader.beginObject();
+				while (aReader.hasNext()) {
+					String boundName = aReader.nextName();
+					if (KEY_NORTHEAST.equals(boundName)) {
+						northEast = readLocation(aReader);
+					} else if (KEY_SOUTHWEST.equals(boundName)) {
+						southWest = readLocation(aReader);
+					} else {
+						aReader.skipValue();
+					}
+				}
+				aReader.endObject();
+			} else if (KEY_SUMMARY.equals(name)) {
+				details.setSummary(readString(aReader));
+			} else if (KEY_COPYRIGHTS.equals(name)) {
+				details.setCopyrights(readString(aReader));
+			} else if (KEY_WARNINGS.equals(name)) {
+				details.setWarnings(readWarnings(aReader));
+			} else {
+				aReader.skipValue();
+			}
+		}
+		aReader.endObject();
+
+		if (northEast == null) {
+			northEast = new Location(LocationManager.GPS_PROVIDER);
+		}
+		if (southWest == null) {
+			southWest = new Location(LocationManager.GPS_PROVIDER);
+		}
+		route.iBounds = new RouteBounds(northEast, southWest);
+		route.iDetails = details;
+
+		// the route may come without legs
+		if (route.iSteps == null) {
+			List<RouteStep> steps = Collections.emptyList();
+			route.iSteps = steps;
+		}
+		if (route.iStartLocation == null) {
+			route.iStartLocation = new Location(LocationManager.GPS_PROVIDER);
+		}
+		if (route.iEndLocation == null) {
+			route.iEndLocation = new Location(LocationManager.GPS_PROVIDER);
+		}
+
+		return route;
+	}
+
+	/**
+	 * Reads the legs of the route and fills the route with them
+	 * 
+	 * @param aReader
+	 *            Reader
+	 * @param aRoute
+	 *            Route for filling
+	 * @throws IOException
+	 *             If parsing error occurred
+	 */
+	private static void readLegs(JsonReader aReader, Route aRoute)
+			throws IOException {
+		aReader.beginArray();
+
+		// NOTE: According to the Google Maps API:
+		// "A route with no waypoints will contain
+		// exactly one leg within the legs array"
+		if (aReader.hasNext()) {
+			readLeg(aReader, aRoute);
+		}
+
+		// other legs are skipped
+		while (aReader.hasNext()) {
+			aReader.skipValue();
+		}
+		aReader.endArray();
+	}
+
+	/**
+	 * Reads single leg of the route
+	 * 
+	 * @param aReader
+	 *            Reader
+	 * @param aRoute
+	 *            Route for filling
+	 * @throws IOException
+	 *             If parsing error occurred
+	 */
+	private static void readLeg(JsonReader aReader, Route aRoute)
+			throws IOException {
+		aReader.beginObject();
+		while (aReader.hasNext()) {
+			String name = aReader.nextName();
+			if (KEY_STEPS.equals(name)) {
+				aRoute.iSteps = readSteps(aReader);
+			} else if (KEY_DISTANCE.equals(name)) {
+				aRoute.iDistance = readIntFromObject(aReader, KEY_VALUE);
+			} else if (KEY_DURATION.equals(name)) {
+				aRoute.iDuration = readIntFromObject(aReader, KEY_VALUE);
+			} else if (KEY_START_ADDRESS.equals(name)) {
+				aRoute.iStartAddress = readString(aReader);
+			} else if (KEY_START_LOCATION.equals(name)) {
+				aRoute.iStartLocation = readLocation(aReader);
+			} else if (KEY_END_ADDRESS.equals(name)) {
+				aRoute.iEndAddress = readString(aReader);
+			} else if (KEY_END_LOCATION.equals(name)) {
+				aRoute.iEndLocation = readLocation(aReader);
+			} else {
+				aReader.skipValue();
+			}
+		}
+		aReader.endObject();
+	}
+
+	/**
+	 * Reads the steps of the leg
+	 * 
+	 * @param aReader
+	 *            Reader
+	 * @return List of the steps
+	 * @throws IOException
+	 *             If parsing error occurred
+	 */
+	private static List<RouteStep> readSteps(JsonReader aReader)
+			throws IOException {
+		List<RouteStep> steps = new ArrayList<RouteStep>();
+
+		aReader.beginArray();
+		while (aReader.hasNext()) {
+			if (aReader.peek() == JsonToken.BEGIN_OBJECT) {
+				steps.add(readStep(aReader));
+			} else {
+				aReader.skipValue();
+			}
+		}
+		aReader.endArray();
+
+		return steps;
+	}
+
+	/**
+	 * Reads single step
+	 * 
+	 * @param aReader
+	 *            Reader
+	 * @return Route step
+	 * @throws IOException
+	 *             If parsing error occurred
+	 */
+	private static RouteStep readStep(JsonReader aReader) throws IOException {
+		int distance = 0;
+		int duration = 0;
+		String instruction = "";
+		String travelMode = "";
+		String polyline = "";
+		Location start = null;
+		Location end = null;
+
+		aReader.beginObject();
+		while (aReader.hasNext()) {
+			String name = aReader.nextName();
+			if (KEY_DISTANCE.equals(name)) {
+				distance = readIntFromObject(aReader, KEY_VALUE);
+			} else if (KEY_DURATION.equals(name)) {
+				duration = readIntFromObject(aReader, KEY_VALUE);
+			} else if (KEY_HTML_INSTRUCTIONS.equals(name)) {
+				instruction = readString(aReader);
+			} else if (KEY_TRAVEL_MODE.equals(name)) {
+				travelMode = readString(aReader);
+			} else if (KEY_POLYLINE.equals(name)) {
+				polyline = readStringFromObject(aReader, KEY_POINTS);
+			} else if (KEY_START_LOCATION.equals(name)) {
+				start = readLocation(aReader);
+			} else if (KEY_END_LOCATION.equals(name)) {
+				end = readLocation(aReader);
+			} else {
+				aReader.skipValue();
+			}
+		}
+		aReader.endObject();
+
+		if (start == null) {
+			start = new Location(LocationManager.GPS_PROVIDER);
+		}
+		if (end == null) {
+			end = new Location(LocationManager.GPS_PROVIDER);
+		}
+
+		// build step
+		RouteStep step = new RouteStep.Builder(start, end).distance(distance)
+				.duration(duration).instructions(instruction)
+				.travelMode(travelMode).points(polyline).build();
+		return step;
+	}
+
+	/**
+	 * Reads route warnings
+	 * 
+	 * @param aReader
+	 *            Reader
+	 * @return Warnings separated by new line
+	 * @throws IOException
+	 *             If parsing error occurred
+	 */
+	private static String readWarnings(JsonReader aReader) throws IOException {
+		StringBuilder warnings = new StringBuilder();
+		if (aReader.peek() != JsonToken.BEGIN_ARRAY) {
+			aReader.skipValue();
+			return "";
+		}
+
+		aReader.beginArray();
+		while (aReader.hasNext()) {
+			warnings.append(readString(aReader));
+			warnings.append("\n");
+		}
+		aReader.endArray();
+
+		return warnings.toString();
+	}
+
+	/**
+	 * Reads location object
+	 * 
+	 * @param aReader
+	 *            Reader
+	 * @return Location object
+	 * @throws IOException
+	 *             If parsing error occurred
+	 */
+	private static Location readLocation(JsonReader aReader)
+			throws IOException {
+		Location location = new Location(LocationManager.GPS_PROVIDER);
+		if (aReader.peek() != JsonToken.BEGIN_OBJECT) {
+			aReader.skipValue();
+			return location;
+		}
+
+		aReader.beginObject();
+		while (aReader.hasNext()) {
+			String name = aReader.nextName();
+			if (KEY_LATITUDE.equals(name)) {
+				location.setLatitude(readDouble(aReader));
+			} else if (KEY_LONGITUDE.equals(name)) {
+				location.setLongitude(readDouble(aReader));
+			} else {
+				aReader.skipValue();
+			}
+		}
+		aReader.endObject();
+
+		return location;
+	}
+
+	/**
+	 * Reads string item from the nested object
+	 * 
+	 * @param aReader
+	 *            Reader
+	 * @param aItemName
+	 *            Item in object for reading
+	 * @return Read or empty string
+	 * @throws IOException
+	 *             If parsing error occurred
+	 */
+	private static String readStringFromObject(JsonReader aReader,
+			String aItemName) throws IOException {
+		String result = "";
+		if (aReader.peek() != JsonToken.BEGIN_OBJECT) {
+			aReader.skipValue();
+			return result;
+		}
+
+		aReader.beginObject();
+		while (aReader.hasNext()) {
+			if (aItemName.equals(aReader.nextName())) {
+				result = readString(aReader);
+			} else {
+				aReader.skipValue();
+			}
+		}
+		aReader.endObject();
+
+		return result;
+	}
+
+	/**
+	 * Reads integer item from the nested object
+	 * 
+	 * @param aReader
+	 *            Reader
+	 * @param aItemName
+	 *            Item in object for reading
+	 * @return Read value or 0
+	 * @throws IOException
+	 *             If parsing error occurred
+	 */
+	private static int readIntFromObject(JsonReader aReader, String aItemName)
+			throws IOException {
+		int result = 0;
+		if (aReader.peek() != JsonToken.BEGIN_OBJECT) {
+			aReader.skipValue();
+			return result;
+		}
+
+		aReader.beginObject();
+		while (aReader.hasNext()) {
+			if (aItemName.equals(aReader.nextName())
+					&& aReader.peek() == JsonToken.NUMBER) {
+				result = aReader.nextInt();
+			} else {
+				aReader.skipValue();
+			}
+		}
+		aReader.endObject();
+
+		return result;
+	}
+
+	/**
+	 * Reads string value. Null and non-string values are read as empty string
+	 * 
+	 * @param aReader
+	 *            Reader
+	 * @return String value
+	 * @throws IOException
+	 *             If parsing error occurred
+	 */
+	private static String readString(JsonReader aReader) throws IOException {
+		JsonToken token = aReader.peek();
+		if (token == JsonToken.STRING || token == JsonToken.NUMBER) {
+			return aReader.nextString();
+		}
+
+		aReader.skipValue();
+		return "";
+	}
+
+	/**
+	 * Reads double value
+	 * 
+	 * @param aReader
+	 *            Reader
+	 * @return Double value or 0.0
+	 * @throws IOException
+	 *             If parsing error occurred
+	 */
+	private static double readDouble(JsonReader aReader) throws IOException {
+		if (aReader.peek() == JsonToken.NUMBER) {
+			return aReader.nextDouble();
+		}
+
+		aReader.skipValue();
+		return 0.0;
+	}
+}
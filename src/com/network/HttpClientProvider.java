@@ -0,0 +1,148 @@
+/**
+ * Copyright Khmelenko Lab
+ * Author: Dmytro Khmelenko
+ */
+package com.network;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.HttpClient;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.params.HttpProtocolParams;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * Provides the process-wide HTTP client. The client keeps the connections
+ * alive in the thread safe pool, so the subsequent requests to the same host
+ * don't pay for a new TCP and TLS handshake. Responses are requested
+ * compressed and decompressed transparently
+ * 
+ * @author Dmytro Khmelenko
+ * 
+ */
+public final class HttpClientProvider {
+
+	/** Network connection timeout */
+	public static final int CONNECTION_TIMEOUT = NetworkEngine.CONNECTION_TIMEOUT;
+
+	/** Maximum number of the connections in the pool */
+	public static final int MAX_TOTAL_CONNECTIONS = 8;
+
+	/** Maximum number of the connections to the same host */
+	public static final int MAX_CONNECTIONS_PER_ROUTE = 4;
+
+	/** Time in seconds after which the idle connection is closed */
+	public static final int IDLE_CONNECTION_TIMEOUT = 30;
+
+	private static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+	private static final String ACCEPTED_ENCODINGS = DecompressingEntity.ENCODING_GZIP
+			+ ", " + DecompressingEntity.ENCODING_DEFLATE;
+
+	/** Shared HTTP client */
+	private static DefaultHttpClient sClient;
+
+	/**
+	 * Denied constructor
+	 */
+	private HttpClientProvider() {
+	}
+
+	/**
+	 * Gets the shared HTTP client. The client is created on the first call
+	 * 
+	 * @return HTTP client
+	 */
+	public static synchronized HttpClient getClient() {
+		if (sClient == null) {
+			sClient = createClient();
+		}
+		return sClient;
+	}
+
+	/**
+	 * Closes expired connections and connections which were idle for longer
+	 * than {@link #IDLE_CONNECTION_TIMEOUT}
+	 */
+	public static void evictIdleConnections() {
+		ClientConnectionManager manager = getClient().getConnectionManager();
+		manager.closeExpiredConnections();
+		manager.closeIdleConnections(IDLE_CONNECTION_TIMEOUT, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Creates HTTP client with the pooled connection manager
+	 * 
+	 * @return HTTP client
+	 */
+	private static DefaultHttpClient createClient() {
+		HttpParams params = new BasicHttpParams();
+
+		// setting connection timeout
+		HttpConnectionParams.setConnectionTimeout(params, CONNECTION_TIMEOUT);
+		HttpConnectionParams.setSoTimeout(params, CONNECTION_TIMEOUT);
+		HttpConnectionParams.setStaleCheckingEnabled(params, true);
+
+		HttpProtocolParams.setVersion(params, HttpVersion.HTTP_1_1);
+		HttpProtocolParams.setContentCharset(params, HTTP.UTF_8);
+
+		// pool limits
+		ConnManagerParams.setMaxTotalConnections(params, MAX_TOTAL_CONNECTIONS);
+		ConnManagerParams.setMaxConnectionsPerRoute(params,
+				new ConnPerRouteBean(MAX_CONNECTIONS_PER_ROUTE));
+		ConnManagerParams.setTimeout(params, CONNECTION_TIMEOUT);
+
+		SchemeRegistry registry = new SchemeRegistry();
+		registry.register(new Scheme("http", PlainSocketFactory
+				.getSocketFactory(), 80));
+		registry.register(new Scheme("https", SSLSocketFactory
+				.getSocketFactory(), 443));
+
+		ClientConnectionManager manager = new ThreadSafeClientConnManager(
+				params, registry);
+		DefaultHttpClient client = new DefaultHttpClient(manager, params);
+
+		// negotiate compression of the responses
+		client.addRequestInterceptor(new HttpRequestInterceptor() {
+
+			@Override
+			public void process(HttpRequest aRequest, HttpContext aContext) {
+				if (!aRequest.containsHeader(HEADER_ACCEPT_ENCODING)) {
+					aRequest.addHeader(HEADER_ACCEPT_ENCODING,
+							ACCEPTED_ENCODINGS);
+				}
+			}
+		});
+
+		// decompress the responses on the fly
+		client.addResponseInterceptor(new HttpResponseInterceptor() {
+
+			@Override
+			public void process(HttpResponse aResponse, HttpContext aContext) {
+				HttpEntity entity = aResponse.getEntity();
+				if (entity != null) {
+					aResponse.setEntity(DecompressingEntity.wrap(entity));
+				}
+			}
+		});
+
+		return client;
+	}
+}
@@ -5,7 +5,17 @@
 package com.network;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
@@ -14,10 +24,6 @@ import org.apache.http.client.ClientProtocolException;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpUriRequest;
-import org.apache.http.impl.client.DefaultHttpClient;
-import org.apache.http.params.BasicHttpParams;
-import org.apache.http.params.HttpConnectionParams;
-import org.apache.http.params.HttpParams;
 import org.apache.http.util.EntityUtils;
 
 import android.content.Context;
@@ -25,6 +31,8 @@ import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import android.net.Uri;
 
+import com.store.Route;
+
 /**
  * Provides methods for working with the network
  * 
@@ -55,6 +63,45 @@ public final class NetworkEngine {
 	private static final String KEY_LANGUAGE = "language";
 	private static final String KEY_TRAVEL_MODE = "mode";
 
+	/** Maximum number of the parallel asynchronous requests */
+	public static final int MAX_PARALLEL_REQUESTS = 4;
+
+	/** Timeout of the asynchronous requests by default */
+	public static final long DEFAULT_REQUEST_TIMEOUT = 2 * CONNECTION_TIMEOUT;
+
+	/** Executes asynchronous requests */
+	private static final ThreadPoolExecutor EXECUTOR;
+
+	/** Cancels timed out asynchronous requests */
+	private static final ScheduledThreadPoolExecutor TIMEOUT_SCHEDULER;
+
+	static {
+		ThreadFactory threadFactory = new ThreadFactory() {
+			private final AtomicInteger iCount = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable aRunnable) {
+				Thread thread = new Thread(aRunnable, "NetworkEngine #"
+						+ iCount.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+
+		EXECUTOR = new ThreadPoolExecutor(MAX_PARALLEL_REQUESTS,
+				MAX_PARALLEL_REQUESTS, 30, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), threadFactory);
+		EXECUTOR.allowCoreThreadTimeOut(true);
+
+		TIMEOUT_SCHEDULER = new ScheduledThreadPoolExecutor(1, threadFactory);
+	}
+
+	/** Request which is executed at the moment */
+	private volatile HttpUriRequest iActiveRequest;
+
+	/** Whether the engine is aborted. Aborted engine doesn't start requests */
+	private volatile boolean iAborted;
+
 	/**
 	 * Checks whether network is available or not
 	 * 
@@ -95,16 +142,46 @@ public final class NetworkEngine {
 	}
 
 	/**
-	 * Requests the directions between 2 places
+	 * Requests the directions between 2 places. The response is parsed
+	 * directly from the network stream
 	 * 
 	 * @param aFrom
 	 *            Origin city
 	 * @param aTo
 	 *            Destination city
-	 * @return response string
+	 * @param aTravelMode
+	 *            Travel mode
+	 * @return Directions result or null, if the connection error occurred. The
+	 *         routes are tagged with the travel mode
 	 */
-	public String requestDirections(String aFrom, String aTo, String aTravelMode) {
-		
+	public DirectionsResult fetchDirections(String aFrom, String aTo,
+			String aTravelMode) {
+		HttpGet httpget = buildDirectionsRequest(aFrom, aTo, aTravelMode);
+
+		DirectionsResult result = doDirectionsRequest(httpget);
+
+		// tag the routes with the requested mode
+		if (result != null) {
+			for (Route route : result.getRoutes()) {
+				route.iTravelMode = aTravelMode;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Builds the request for the directions between 2 places
+	 * 
+	 * @param aFrom
+	 *            Origin city
+	 * @param aTo
+	 *            Destination city
+	 * @param aTravelMode
+	 *            Travel mode
+	 * @return Request object
+	 */
+	private HttpGet buildDirectionsRequest(String aFrom, String aTo,
+			String aTravelMode) {
 		// get the language code. If it's not found, 
 		// default (english) is used 
 		String lang = Locale.getDefault().getLanguage();
@@ -122,9 +199,129 @@ public final class NetworkEngine {
 
 		HttpGet httpget = new HttpGet(uri.toString());
 		httpget.setHeader("Content-Type", "application/json");
+		return httpget;
+	}
 
-		String response = doRequest(httpget);
-		return response;
+	/**
+	 * Requests the cities asynchronously. The request is executed by its own
+	 * network engine, it's aborted by cancelling the returned future
+	 * 
+	 * @param aInputCity
+	 *            City for search
+	 * @param aApiKey
+	 *            API key
+	 * @param aTimeout
+	 *            Timeout in milliseconds, after which the request is
+	 *            cancelled
+	 * @param aObserver
+	 *            Observer of the response. Can be null
+	 * @return Future of the response string
+	 */
+	public static Future<String> requestCitiesAsync(final String aInputCity,
+			final String aApiKey, long aTimeout,
+			ResponseObserver<String> aObserver) {
+		final NetworkEngine network = new NetworkEngine();
+		Callable<String> request = new Callable<String>() {
+
+			@Override
+			public String call() {
+				return network.requestCities(aInputCity, aApiKey);
+			}
+		};
+
+		return submit(new NetworkTask<String>(request, network, aObserver),
+				aTimeout);
+	}
+
+	/**
+	 * Requests the directions between 2 places asynchronously. The response is
+	 * parsed directly from the network stream. The request is executed by its
+	 * own network engine, it's aborted by cancelling the returned future
+	 * 
+	 * @param aFrom
+	 *            Origin city
+	 * @param aTo
+	 *            Destination city
+	 * @param aTravelMode
+	 *            Travel mode
+	 * @param aTimeout
+	 *            Timeout in milliseconds, after which the request is
+	 *            cancelled
+	 * @param aObserver
+	 *            Observer of the response. Can be null
+	 * @return Future of the directions result. The result is null, if the
+	 *         connection error occurred
+	 */
+	public static Future<DirectionsResult> fetchDirectionsAsync(
+			final String aFrom, final String aTo, final String aTravelMode,
+			long aTimeout, ResponseObserver<DirectionsResult> aObserver) {
+		final NetworkEngine network = new NetworkEngine();
+		Callable<DirectionsResult> request = new Callable<DirectionsResult>() {
+
+			@Override
+			public DirectionsResult call() {
+				return network.fetchDirections(aFrom, aTo, aTravelMode);
+			}
+		};
+
+		return submit(new NetworkTask<DirectionsResult>(request, network,
+				aObserver), aTimeout);
+	}
+
+	/**
+	 * Submits the task for execution and schedules its cancellation after the
+	 * timeout
+	 * 
+	 * @param aTask
+	 *            Task to execute
+	 * @param aTimeout
+	 *            Timeout in milliseconds
+	 * @return Submitted task
+	 */
+	private static <T> Future<T> submit(final NetworkTask<T> aTask,
+			long aTimeout) {
+		// the timeout is set before the task is started, so the finished task
+		// always finds it
+		if (aTimeout > 0) {
+			aTask.setTimeout(TIMEOUT_SCHEDULER.schedule(new Runnable() {
+
+				@Override
+				public void run() {
+					aTask.cancel(true);
+				}
+			}, aTimeout, TimeUnit.MILLISECONDS));
+		}
+
+		EXECUTOR.execute(aTask);
+		return aTask;
+	}
+
+	/**
+	 * Cancels the timeout of the finished task. The cancelled timeout is
+	 * removed from the scheduler, so it doesn't keep the task and its response
+	 * 
+	 * @param aTimeout
+	 *            Scheduled timeout
+	 */
+	static void cancelTimeout(ScheduledFuture<?> aTimeout) {
+		if (aTimeout.cancel(false)) {
+			TIMEOUT_SCHEDULER.purge();
+		}
+	}
+
+	/**
+	 * Aborts the request which is executed at the moment. The aborted request
+	 * is finished as failed. The requests, which are not started yet, are not
+	 * executed at all
+	 */
+	public void abort() {
+		// the flag is set first: the request, which is just being started,
+		// either sees it or is already visible here
+		iAborted = true;
+		HttpUriRequest request = iActiveRequest;
+		if (request != null) {
+			request.abort();
+		}
 	}
 
 	/**
@@ -137,33 +334,90 @@ public final class NetworkEngine {
 	private String doRequest(HttpUriRequest aRequest) {
 		String result = "";
 
-		// setting connection timeout
-		HttpParams httpParameters = new BasicHttpParams();
-		HttpConnectionParams.setConnectionTimeout(httpParameters,
-				CONNECTION_TIMEOUT);
-		HttpConnectionParams.setSoTimeout(httpParameters, CONNECTION_TIMEOUT);
-		// Create a new HttpClient
-		HttpClient httpclient = new DefaultHttpClient(httpParameters);
+		HttpClient httpclient = HttpClientProvider.getClient();
+		HttpClientProvider.evictIdleConnections();
+		iActiveRequest = aRequest;
+		if (iAborted) {
+			iActiveRequest = null;
+			return result;
+		}
 
 		try {
 			// Execute HTTP Request
 			HttpResponse response = httpclient.execute(aRequest);
 			int statusCode = response.getStatusLine().getStatusCode();
+			HttpEntity entity = response.getEntity();
 
 			if (statusCode == HttpStatus.SC_OK) {
-				HttpEntity entity = response.getEntity();
 				String responseString = EntityUtils.toString(entity);
 				result = responseString;
 			} else {
 				result = response.getStatusLine().getReasonPhrase();
+
+				// release the connection back to the pool
+				if (entity != null) {
+					entity.consumeContent();
+				}
 			}
 
 		} catch (ClientProtocolException e) {
 			String ex = e.toString();
 			result = ex;
+			aRequest.abort();
 		} catch (IOException e) {
 			String ex = e.toString();
 			result = ex;
+			aRequest.abort();
+		} finally {
+			iActiveRequest = null;
+		}
+		return result;
+	}
+
+	/**
+	 * Executes the directions request and parses the response from the stream
+	 * 
+	 * @param aRequest
+	 *            Request object
+	 * @return Directions result or null, if the connection error occurred
+	 */
+	private DirectionsResult doDirectionsRequest(HttpUriRequest aRequest) {
+		DirectionsResult result = null;
+
+		HttpClient httpclient = HttpClientProvider.getClient();
+		HttpClientProvider.evictIdleConnections();
+		iActiveRequest = aRequest;
+		if (iAborted) {
+			iActiveRequest = null;
+			return result;
+		}
+
+		try {
+			// Execute HTTP Request
+			HttpResponse response = httpclient.execute(aRequest);
+			int statusCode = response.getStatusLine().getStatusCode();
+			HttpEntity entity = response.getEntity();
+
+			if (statusCode == HttpStatus.SC_OK && entity != null) {
+				InputStream content = entity.getContent();
+				try {
+					result = DirectionsStreamParser.parse(content);
+				} finally {
+					content.close();
+				}
+			} else if (entity != null) {
+				// release the connection back to the pool
+				entity.consumeContent();
+			}
+
+		} catch (ClientProtocolException e) {
+			e.printStackTrace();
+			aRequest.abort();
+		} catch (IOException e) {
+			e.printStackTrace();
+			aRequest.abort();
+		} finally {
+			iActiveRequest = null;
 		}
 		return result;
 	}
@@ -0,0 +1,100 @@
+/**
+ * Copyright Khmelenko Lab
+ * Author: Dmytro Khmelenko
+ */
+package com.network;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * Asynchronous network request. Cancelling the task aborts the HTTP request
+ * in flight
+ * 
+ * @author Dmytro Khmelenko
+ * 
+ * @param <T>
+ *            Type of the response
+ */
+final class NetworkTask<T> extends FutureTask<T> {
+
+	/** Network engine executing the request */
+	private final NetworkEngine iNetwork;
+
+	/** Observer of the response. Can be null */
+	private final ResponseObserver<T> iObserver;
+
+	/** Scheduled timeout of the task. Null, if there is no timeout */
+	private volatile ScheduledFuture<?> iTimeout;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param aCallable
+	 *            Request to execute
+	 * @param aNetwork
+	 *            Network engine executing the request
+	 * @param aObserver
+	 *            Observer of the response. Can be null
+	 */
+	NetworkTask(Callable<T> aCallable, NetworkEngine aNetwork,
+			ResponseObserver<T> aObserver) {
+		super(aCallable);
+		iNetwork = aNetwork;
+		iObserver = aObserver;
+	}
+
+	/**
+	 * Sets the scheduled timeout of the task. It's cancelled, when the task is
+	 * finished
+	 * 
+	 * @param aTimeout
+	 *            Scheduled timeout
+	 */
+	void setTimeout(ScheduledFuture<?> aTimeout) {
+		iTimeout = aTimeout;
+	}
+
+	/*
+	 * @see java.util.concurrent.FutureTask#cancel(boolean)
+	 */
+	@Override
+	public boolean cancel(boolean aMayInterruptIfRunning) {
+		boolean cancelled = super.cancel(aMayInterruptIfRunning);
+		if (cancelled) {
+			iNetwork.abort();
+		}
+		return cancelled;
+	}
+
+	/*
+	 * @see java.util.concurrent.FutureTask#done()
+	 */
+	@Override
+	protected void done() {
+		ScheduledFuture<?> timeout = iTimeout;
+		if (timeout != null) {
+			iTimeout = null;
+			NetworkEngine.cancelTimeout(timeout);
+		}
+
+		if (iObserver == null) {
+			return;
+		}
+
+		T response = null;
+		try {
+			response = get();
+		} catch (CancellationException e) {
+			// cancelled or timed out, null is delivered
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			e.printStackTrace();
+		}
+		iObserver.responseReceived(response);
+	}
+}
@@ -0,0 +1,27 @@
+/**
+ * Copyright Khmelenko Lab
+ * Author: Dmytro Khmelenko
+ */
+package com.network;
+
+/**
+ * Observer for the asynchronous network requests
+ * 
+ * @author Dmytro Khmelenko
+ * 
+ * @param <T>
+ *            Type of the response
+ */
+public interface ResponseObserver<T> {
+
+	/**
+	 * Called when the request is finished. It's called on the network
+	 * thread or on the thread which cancelled the request
+	 * 
+	 * @param aResponse
+	 *            Received response. Null, if the request failed, was
+	 *            cancelled or timed out
+	 */
+	public void responseReceived(T aResponse);
+
+}
@@ -82,4 +82,14 @@ public class ResponseStatus {
 	public boolean isSuccess() {
 		return iSuccess;
 	}
+
+	/**
+	 * Checks whether the response is definitive: the routes are found or
+	 * there are none. Other failures may pass, when the request is repeated
+	 * 
+	 * @return True, if the response is definitive
+	 */
+	public boolean isDefinitive() {
+		return iSuccess || iStatusId == R.string.status_zero_results;
+	}
 }
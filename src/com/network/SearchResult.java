@@ -0,0 +1,78 @@
+/**
+ * Copyright Khmelenko Lab
+ * Author: Dmytro Khmelenko
+ */
+package com.network;
+
+import com.store.DbEngine;
+
+/**
+ * Contains the result of the directions search
+ * 
+ * @author Dmytro Khmelenko
+ * 
+ */
+public final class SearchResult {
+
+	/** Id of the stored search */
+	private final long iSearchId;
+
+	/** Response status. Null, if not requested or the connection failed */
+	private final ResponseStatus iStatus;
+
+	/** True, if the result is taken from the cache */
+	private final boolean iCached;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param aSearchId
+	 *            Id of the stored search or {@link DbEngine#NO_SEARCH}
+	 * @param aStatus
+	 *            Response status
+	 * @param aCached
+	 *            True, if the result is taken from the cache
+	 */
+	SearchResult(long aSearchId, ResponseStatus aStatus, boolean aCached) {
+		iSearchId = aSearchId;
+		iStatus = aStatus;
+		iCached = aCached;
+	}
+
+	/**
+	 * Gets the id of the stored search
+	 * 
+	 * @return Search id or {@link DbEngine#NO_SEARCH}, if nothing is found
+	 */
+	public long getSearchId() {
+		return iSearchId;
+	}
+
+	/**
+	 * Gets the response status
+	 * 
+	 * @return Response status. Null, if the result is cached or the
+	 *         connection failed
+	 */
+	public ResponseStatus getStatus() {
+		return iStatus;
+	}
+
+	/**
+	 * Checks whether the result is taken from the cache
+	 * 
+	 * @return True, if the result is cached
+	 */
+	public boolean isCached() {
+		return iCached;
+	}
+
+	/**
+	 * Checks whether the routes are found
+	 * 
+	 * @return True, if the routes can be shown
+	 */
+	public boolean isFound() {
+		return iSearchId != DbEngine.NO_SEARCH;
+	}
+}
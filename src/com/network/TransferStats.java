@@ -0,0 +1,115 @@
+/**
+ * Copyright Khmelenko Lab
+ * Author: Dmytro Khmelenko
+ */
+package com.network;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects the statistics of the received data. Counts the bytes received
+ * from the network (before decompression) and the bytes passed to the parsers
+ * (after decompression)
+ * 
+ * @author Dmytro Khmelenko
+ * 
+ */
+public final class TransferStats {
+
+	/** Bytes received from the network */
+	private static final AtomicLong sReceivedBytes = new AtomicLong();
+
+	/** Bytes after decompression */
+	private static final AtomicLong sDecodedBytes = new AtomicLong();
+
+	/** Number of compressed responses */
+	private static final AtomicLong sCompressedResponses = new AtomicLong();
+
+	/** Number of all responses */
+	private static final AtomicLong sResponses = new AtomicLong();
+
+	/**
+	 * Denied constructor
+	 */
+	private TransferStats() {
+	}
+
+	/**
+	 * Gets the number of bytes received from the network
+	 * 
+	 * @return Received bytes
+	 */
+	public static long getReceivedBytes() {
+		return sReceivedBytes.get();
+	}
+
+	/**
+	 * Gets the number of bytes after decompression
+	 * 
+	 * @return Decoded bytes
+	 */
+	public static long getDecodedBytes() {
+		return sDecodedBytes.get();
+	}
+
+	/**
+	 * Gets the number of the compressed responses
+	 * 
+	 * @return Number of compressed responses
+	 */
+	public static long getCompressedResponses() {
+		return sCompressedResponses.get();
+	}
+
+	/**
+	 * Gets the number of all responses
+	 * 
+	 * @return Number of responses
+	 */
+	public static long getResponses() {
+		return sResponses.get();
+	}
+
+	/**
+	 * Resets all counters
+	 */
+	public static void reset() {
+		sReceivedBytes.set(0);
+		sDecodedBytes.set(0);
+		sCompressedResponses.set(0);
+		sResponses.set(0);
+	}
+
+	/**
+	 * Registers new response
+	 * 
+	 * @param aCompressed
+	 *            True, if the response is compressed
+	 */
+	static void responseReceived(boolean aCompressed) {
+		sResponses.incrementAndGet();
+		if (aCompressed) {
+			sCompressedResponses.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Adds the bytes received from the network
+	 * 
+	 * @param aBytes
+	 *            Number of bytes
+	 */
+	static void addReceivedBytes(long aBytes) {
+		sReceivedBytes.addAndGet(aBytes);
+	}
+
+	/**
+	 * Adds the bytes after decompression
+	 * 
+	 * @param aBytes
+	 *            Number of bytes
+	 */
+	static void addDecodedBytes(long aBytes) {
+		sDecodedBytes.addAndGet(aBytes);
+	}
+}
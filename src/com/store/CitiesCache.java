@@ -0,0 +1,288 @@
+/**
+ * Copyright Khmelenko Lab
+ * Author: Dmytro Khmelenko
+ */
+package com.store;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
+
+/**
+ * Persistent cache of the autocomplete responses. Responses are keyed by the
+ * normalized user input and the locale. Entries expire after
+ * {@link #TIME_TO_LIVE} and the least recently used entries are evicted, when
+ * the size of the cache exceeds {@link #MAX_SIZE}
+ * 
+ * @author Dmytro Khmelenko
+ * 
+ */
+public final class CitiesCache {
+
+	/** Time to live of the cached response in milliseconds */
+	public static final long TIME_TO_LIVE = 24 * 60 * 60 * 1000L; // 1 day
+
+	/** Maximum size of the cached responses in bytes */
+	public static final long MAX_SIZE = 512 * 1024L;
+
+	private static final String DATABASE_NAME = "cities_cache.db";
+
+	// tables
+	private static final String RESPONSES_TABLE = "responses";
+
+	// fields for responses table
+	private static final String KEY_INPUT = "input";
+	private static final String KEY_RESPONSE = "response";
+	private static final String KEY_CREATED = "created";
+	private static final String KEY_ACCESSED = "accessed";
+	private static final String KEY_SIZE = "size";
+
+	/**
+	 * Database helper class
+	 * 
+	 * @author Dmytro Khmelenko
+	 * 
+	 */
+	private static class CacheHelper extends SQLiteOpenHelper {
+
+		private static final int DATABASE_VERSION = 1;
+
+		private static final String RESPONSES_TABLE_CREATE = "create table IF NOT EXISTS "
+				+ RESPONSES_TABLE
+				+ " ("
+				+ KEY_INPUT
+				+ " text primary key, "
+				+ KEY_RESPONSE
+				+ " text not null, "
+				+ KEY_CREATED
+				+ " integer, "
+				+ KEY_ACCESSED
+				+ " integer, " + KEY_SIZE + " integer);";
+
+		private static final String ACCESSED_INDEX_CREATE = "create index IF NOT EXISTS "
+				+ RESPONSES_TABLE
+				+ "_"
+				+ KEY_ACCESSED
+				+ " on "
+				+ RESPONSES_TABLE + " (" + KEY_ACCESSED + ");";
+
+		/**
+		 * Constructor
+		 * 
+		 * @param aContext
+		 *            Context
+		 */
+		public CacheHelper(Context aContext) {
+			super(aContext, DATABASE_NAME, null, DATABASE_VERSION);
+		}
+
+		@Override
+		public void onCreate(SQLiteDatabase aDatabase) {
+			aDatabase.execSQL(RESPONSES_TABLE_CREATE);
+			aDatabase.execSQL(ACCESSED_INDEX_CREATE);
+		}
+
+		@Override
+		public void onUpgrade(SQLiteDatabase aDatabase, int aOldVersion,
+				int aNewVersion) {
+			Log.w(CacheHelper.class.getName(), "Upgrading cache from version "
+					+ aOldVersion + " to " + aNewVersion
+					+ ", which will destroy all cached responses");
+			aDatabase.execSQL("drop table IF EXISTS " + RESPONSES_TABLE);
+			onCreate(aDatabase);
+		}
+	}
+
+	private static CitiesCache sInstance;
+
+	private final SQLiteDatabase iDatabase;
+
+	// statistics
+	private final AtomicLong iHits = new AtomicLong();
+	private final AtomicLong iMisses = new AtomicLong();
+	private final AtomicLong iEvictions = new AtomicLong();
+
+	/**
+	 * Constructor
+	 * 
+	 * @param aContext
+	 *            Context
+	 */
+	private CitiesCache(Context aContext) {
+		CacheHelper helper = new CacheHelper(aContext);
+		iDatabase = helper.getWritableDatabase();
+	}
+
+	/**
+	 * Gets the cache instance
+	 * 
+	 * @param aContext
+	 *            Context
+	 * @return Cache instance
+	 */
+	public static synchronized CitiesCache getInstance(Context aContext) {
+		if (sInstance == null) {
+			sInstance = new CitiesCache(aContext.getApplicationContext());
+		}
+		return sInstance;
+	}
+
+	/**
+	 * Normalizes the user input for using it as a cache key
+	 * 
+	 * @param aInput
+	 *            User input
+	 * @return Normalized input
+	 */
+	public static String normalize(String aInput) {
+		Locale locale = Locale.getDefault();
+		String input = aInput.trim().replaceAll("\\s+", " ")
+				.toLowerCase(locale);
+		return locale.toString() + '|' + input;
+	}
+
+	/**
+	 * Gets the cached response
+	 * 
+	 * @param aInput
+	 *            User input
+	 * @return Cached response or null, if the response is not cached or it's
+	 *         expired
+	 */
+	public String get(String aInput) {
+		String key = normalize(aInput);
+		String[] columns = { KEY_RESPONSE, KEY_CREATED };
+		String[] args = { key };
+
+		String response = null;
+		long created = 0;
+		Cursor cursor = iDatabase.query(RESPONSES_TABLE, columns, KEY_INPUT
+				+ "=?", args, null, null, null);
+		if (cursor.moveToFirst()) {
+			response = cursor.getString(cursor.getColumnIndex(KEY_RESPONSE));
+			created = cursor.getLong(cursor.getColumnIndex(KEY_CREATED));
+		}
+		cursor.close();
+
+		long now = System.currentTimeMillis();
+		if (response != null && now - created > TIME_TO_LIVE) {
+			// the response is expired
+			iDatabase.delete(RESPONSES_TABLE, KEY_INPUT + "=?", args);
+			response = null;
+		}
+
+		if (response == null) {
+			iMisses.incrementAndGet();
+			return null;
+		}
+
+		// mark as recently used
+		ContentValues values = new ContentValues();
+		values.put(KEY_ACCESSED, now);
+		iDatabase.update(RESPONSES_TABLE, values, KEY_INPUT + "=?", args);
+
+		iHits.incrementAndGet();
+		return response;
+	}
+
+	/**
+	 * Puts the response to the cache
+	 * 
+	 * @param aInput
+	 *            User input
+	 * @param aResponse
+	 *            Response for the input
+	 */
+	public void put(String aInput, String aResponse) {
+		long now = System.currentTimeMillis();
+
+		ContentValues values = new ContentValues();
+		values.put(KEY_INPUT, normalize(aInput));
+		values.put(KEY_RESPONSE, aResponse);
+		values.put(KEY_CREATED, now);
+		values.put(KEY_ACCESSED, now);
+		// stored as UTF-16, it's good enough for the size estimation
+		values.put(KEY_SIZE, aResponse.length() * 2);
+
+		iDatabase.replace(RESPONSES_TABLE, null, values);
+
+		evict();
+	}
+
+	/**
+	 * Removes all cached responses
+	 */
+	public void clear() {
+		iDatabase.delete(RESPONSES_TABLE, null, null);
+	}
+
+	/**
+	 * Evicts least recently used responses until the cache fits to the
+	 * {@link #MAX_SIZE}
+	 */
+	private synchronized void evict() {
+		Cursor sizeCursor = iDatabase.rawQuery("select sum(" + KEY_SIZE
+				+ ") from " + RESPONSES_TABLE, null);
+		long size = 0;
+		if (sizeCursor.moveToFirst()) {
+			size = sizeCursor.getLong(0);
+		}
+		sizeCursor.close();
+
+		if (size <= MAX_SIZE) {
+			return;
+		}
+
+		String[] columns = { KEY_INPUT, KEY_SIZE };
+		Cursor cursor = iDatabase.query(RESPONSES_TABLE, columns, null, null,
+				null, null, KEY_ACCESSED + " asc");
+		iDatabase.beginTransaction();
+		try {
+			while (size > MAX_SIZE && cursor.moveToNext()) {
+				String key = cursor.getString(0);
+				size -= cursor.getLong(1);
+
+				String[] args = { key };
+				iDatabase.delete(RESPONSES_TABLE, KEY_INPUT + "=?", args);
+				iEvictions.incrementAndGet();
+			}
+			iDatabase.setTransactionSuccessful();
+		} finally {
+			iDatabase.endTransaction();
+			cursor.close();
+		}
+	}
+
+	/**
+	 * Gets the number of cache hits
+	 * 
+	 * @return Number of hits
+	 */
+	public long getHits() {
+		return iHits.get();
+	}
+
+	/**
+	 * Gets the number of cache misses
+	 * 
+	 * @return Number of misses
+	 */
+	public long getMisses() {
+		return iMisses.get();
+	}
+
+	/**
+	 * Gets the number of evicted responses
+	 * 
+	 * @return Number of evictions
+	 */
+	public long getEvictions() {
+		return iEvictions.get();
+	}
+}
@@ -4,9 +4,12 @@
  */
 package com.store;
 
+import java.io.File;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
 
 import android.content.ContentValues;
 import android.content.Context;
@@ -15,10 +18,15 @@ import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 import android.location.Location;
 import android.location.LocationManager;
+import android.os.SystemClock;
 import android.util.Log;
 
+import com.utils.PolylineCodec;
+import com.utils.PolylineDecoder;
+
 /**
  * Provides work with database
  * 
@@ -29,39 +37,142 @@ public final class DbEngine {
 
 	private static final String DATABASE_NAME = "routes.db";
 
+	/** Scale of the fixed-point coordinates: 7 decimal digits */
+	private static final double COORDINATE_SCALE = 1E7;
+
+	/** Maximal number of the stored searches */
+	private static final int MAX_SEARCHES = 20;
+
+	/** Maximal size of the stored searches in bytes */
+	private static final long MAX_SEARCHES_SIZE = 2 * 1024 * 1024;
+
+	/** Returned, when the search is not stored */
+	public static final long NO_SEARCH = -1;
+
+	/**
+	 * Receives the bounding boxes of the stored routes and steps
+	 * 
+	 * @author Dmytro Khmelenko
+	 * 
+	 */
+	interface GeometryVisitor {
+
+		/**
+		 * Called for each stored route
+		 * 
+		 * @param aRouteId
+		 *            Route id
+		 * @param aSouth
+		 *            South latitude of the route bounds
+		 * @param aWest
+		 *            West longitude of the route bounds
+		 * @param aNorth
+		 *            North latitude of the route bounds
+		 * @param aEast
+		 *            East longitude of the route bounds
+		 */
+		public void route(int aRouteId, double aSouth, double aWest,
+				double aNorth, double aEast);
+
+		/**
+		 * Called for each stored step
+		 * 
+		 * @param aStepId
+		 *            Step id
+		 * @param aRouteId
+		 *            Route id
+		 * @param aSouth
+		 *            South latitude of the step box
+		 * @param aWest
+		 *            West longitude of the step box
+		 * @param aNorth
+		 *            North latitude of the step box
+		 * @param aEast
+		 *            East longitude of the step box
+		 */
+		public void step(int aStepId, int aRouteId, double aSouth,
+				double aWest, double aNorth, double aEast);
+	}
+
 	// tables
+	private static final String SEARCHES_TABLE = "searches";
 	private static final String ROUTE_TABLE = "route";
 	private static final String STEPS_TABLE = "steps";
-	private static final String LOCATIONS_TABLE = "locations";
+
+	// fields for searches table
+	private static final String KEY_SEARCH_ORIGIN = "origin";
+	private static final String KEY_SEARCH_DEST = "dest";
+	private static final String KEY_SEARCH_TRAVEL_MODE = "travel_mode";
+	private static final String KEY_SEARCH_CREATED = "created";
+	private static final String KEY_SEARCH_ACCESSED = "accessed";
+	private static final String KEY_SEARCH_SIZE = "size";
 
 	// fields for route table
 	private static final String KEY_ROWID = "_id";
 	private static final String KEY_ROUTE_DIST = "distance";
 	private static final String KEY_ROUTE_DURATION = "duration";
 	private static final String KEY_ROUTE_END_ADDR = "end_addr";
-	private static final String KEY_ROUTE_END_LOC = "end_loc";
+	private static final String KEY_ROUTE_END_LAT = "end_lat";
+	private static final String KEY_ROUTE_END_LNG = "end_lng";
 	private static final String KEY_ROUTE_START_ADDR = "start_addr";
-	private static final String KEY_ROUTE_START_LOC = "start_loc";
-	private static final String KEY_BOUNDS_TL = "bounds_tl";
-	private static final String KEY_BOUNDS_BR = "bounds_br";
+	private static final String KEY_ROUTE_START_LAT = "start_lat";
+	private static final String KEY_ROUTE_START_LNG = "start_lng";
+	private static final String KEY_BOUNDS_NE_LAT = "bounds_ne_lat";
+	private static final String KEY_BOUNDS_NE_LNG = "bounds_ne_lng";
+	private static final String KEY_BOUNDS_SW_LAT = "bounds_sw_lat";
+	private static final String KEY_BOUNDS_SW_LNG = "bounds_sw_lng";
 	private static final String KEY_ROUTE_POLYLINE = "polyline";
 	private static final String KEY_ROUTE_COPYRIGHTS = "copyrights";
 	private static final String KEY_ROUTE_SUMMARY = "summary";
 	private static final String KEY_ROUTE_WARNINGS = "warnings";
+	private static final String KEY_ROUTE_TRAVEL_MODE = "travel_mode";
+	private static final String KEY_ROUTE_SEARCH = "search_id";
+	private static final String KEY_ROUTE_POLYLINE_DATA = "polyline_data";
 
 	// fields for steps table
 	private static final String KEY_STEP_ROUTE = "route_id";
 	private static final String KEY_STEP_DIST = "distance";
 	private static final String KEY_STEP_DURATION = "duration";
-	private static final String KEY_STEP_START_LOC = "start_loc";
-	private static final String KEY_STEP_END_LOC = "end_loc";
+	private static final String KEY_STEP_START_LAT = "start_lat";
+	private static final String KEY_STEP_START_LNG = "start_lng";
+	private static final String KEY_STEP_END_LAT = "end_lat";
+	private static final String KEY_STEP_END_LNG = "end_lng";
 	private static final String KEY_STEP_TRAVEL_MODE = "travel_mode";
 	private static final String KEY_STEP_INSTRUCTIONS = "instr";
 	private static final String KEY_STEP_POINTS = "points";
-
-	// fields for Location table
-	private static final String KEY_LOCATION_LAT = "lat";
-	private static final String KEY_LOCATION_LNG = "lng";
+	private static final String KEY_STEP_POINTS_DATA = "points_data";
+
+	// columns of the route summary
+	private static final String[] SUMMARY_COLUMNS = { KEY_ROWID,
+			KEY_ROUTE_DIST, KEY_ROUTE_DURATION, KEY_ROUTE_END_ADDR,
+			KEY_ROUTE_END_LAT, KEY_ROUTE_END_LNG, KEY_ROUTE_START_ADDR,
+			KEY_ROUTE_START_LAT, KEY_ROUTE_START_LNG, KEY_BOUNDS_NE_LAT,
+			KEY_BOUNDS_NE_LNG, KEY_BOUNDS_SW_LAT, KEY_BOUNDS_SW_LNG,
+			KEY_ROUTE_POLYLINE_DATA, KEY_ROUTE_COPYRIGHTS, KEY_ROUTE_SUMMARY,
+			KEY_ROUTE_WARNINGS, KEY_ROUTE_TRAVEL_MODE };
+
+	// precompiled inserts
+	private static final String ROUTE_INSERT = "insert into " + ROUTE_TABLE
+			+ " (" + KEY_ROUTE_DIST + ", " + KEY_ROUTE_DURATION + ", "
+			+ KEY_ROUTE_END_ADDR + ", " + KEY_ROUTE_END_LAT + ", "
+			+ KEY_ROUTE_END_LNG + ", " + KEY_ROUTE_START_ADDR + ", "
+			+ KEY_ROUTE_START_LAT + ", " + KEY_ROUTE_START_LNG + ", "
+			+ KEY_BOUNDS_NE_LAT + ", " + KEY_BOUNDS_NE_LNG + ", "
+			+ KEY_BOUNDS_SW_LAT + ", " + KEY_BOUNDS_SW_LNG + ", "
+			+ KEY_ROUTE_POLYLINE + ", " + KEY_ROUTE_COPYRIGHTS + ", "
+			+ KEY_ROUTE_SUMMARY + ", " + KEY_ROUTE_WARNINGS + ", "
+			+ KEY_ROUTE_TRAVEL_MODE + ", " + KEY_ROUTE_SEARCH + ", "
+			+ KEY_ROUTE_POLYLINE_DATA
+			+ ") values (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?);";
+
+	private static final String STEP_INSERT = "insert into " + STEPS_TABLE
+			+ " (" + KEY_STEP_ROUTE + ", " + KEY_STEP_DIST + ", "
+			+ KEY_STEP_DURATION + ", " + KEY_STEP_END_LAT + ", "
+			+ KEY_STEP_END_LNG + ", " + KEY_STEP_START_LAT + ", "
+			+ KEY_STEP_START_LNG + ", " + KEY_STEP_TRAVEL_MODE + ", "
+			+ KEY_STEP_INSTRUCTIONS + ", " + KEY_STEP_POINTS + ", "
+			+ KEY_STEP_POINTS_DATA
+			+ ") values (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?);";
 
 	/**
 	 * Database helper class
@@ -71,7 +182,7 @@ public final class DbEngine {
 	 */
 	public static class DbEngineHelper extends SQLiteOpenHelper {
 
-		private static final int DATABASE_VERSION = 1;
+		private static final int DATABASE_VERSION = 7;
 
 		// creation table of schedule
 		private static final String ROUTE_TABLE_CREATE = "create table IF NOT EXISTS "
@@ -85,22 +196,36 @@ public final class DbEngine {
 				+ " integer, "
 				+ KEY_ROUTE_END_ADDR
 				+ " text, "
-				+ KEY_ROUTE_END_LOC
+				+ KEY_ROUTE_END_LAT
+				+ " integer, "
+				+ KEY_ROUTE_END_LNG
 				+ " integer, "
 				+ KEY_ROUTE_START_ADDR
 				+ " text, "
-				+ KEY_ROUTE_START_LOC
+				+ KEY_ROUTE_START_LAT
+				+ " integer, "
+				+ KEY_ROUTE_START_LNG
+				+ " integer, "
+				+ KEY_BOUNDS_NE_LAT
 				+ " integer, "
-				+ KEY_BOUNDS_TL
+				+ KEY_BOUNDS_NE_LNG
 				+ " integer, "
-				+ KEY_BOUNDS_BR
+				+ KEY_BOUNDS_SW_LAT
+				+ " integer, "
+				+ KEY_BOUNDS_SW_LNG
 				+ " integer, "
 				+ KEY_ROUTE_POLYLINE
 				+ " text not null, "
 				+ KEY_ROUTE_COPYRIGHTS
 				+ " text, "
 				+ KEY_ROUTE_SUMMARY
-				+ " text, " + KEY_ROUTE_WARNINGS + " text);";
+				+ " text, "
+				+ KEY_ROUTE_WARNINGS
+				+ " text, "
+				+ KEY_ROUTE_TRAVEL_MODE
+				+ " text, "
+				+ KEY_ROUTE_SEARCH
+				+ " integer, " + KEY_ROUTE_POLYLINE_DATA + " blob);";
 
 		private static final String STEPS_TABLE_CREATE = "create table IF NOT EXISTS "
 				+ STEPS_TABLE
@@ -113,22 +238,192 @@ public final class DbEngine {
 				+ " integer, "
 				+ KEY_STEP_DURATION
 				+ " integer, "
-				+ KEY_STEP_END_LOC
+				+ KEY_STEP_END_LAT
+				+ " integer, "
+				+ KEY_STEP_END_LNG
 				+ " integer, "
-				+ KEY_STEP_START_LOC
+				+ KEY_STEP_START_LAT
+				+ " integer, "
+				+ KEY_STEP_START_LNG
 				+ " integer, "
 				+ KEY_STEP_TRAVEL_MODE
 				+ " text, "
 				+ KEY_STEP_INSTRUCTIONS
-				+ " text, " + KEY_STEP_POINTS + " text);";
+				+ " text, "
+				+ KEY_STEP_POINTS
+				+ " text, " + KEY_STEP_POINTS_DATA + " blob);";
+
+		// steps are always looked up by the route, in the insertion order
+		private static final String STEPS_ROUTE_INDEX_CREATE = "create index IF NOT EXISTS "
+				+ STEPS_TABLE
+				+ "_"
+				+ KEY_STEP_ROUTE
+				+ "_idx on "
+				+ STEPS_TABLE
+				+ " ("
+				+ KEY_STEP_ROUTE + ", " + KEY_ROWID + ");";
 
-		private static final String LOCATION_TABLE_CREATE = "create table IF NOT EXISTS "
-				+ LOCATIONS_TABLE
+		// routes are filtered by the travel mode
+		private static final String ROUTE_TRAVEL_MODE_INDEX_CREATE = "create index IF NOT EXISTS "
+				+ ROUTE_TABLE
+				+ "_"
+				+ KEY_ROUTE_TRAVEL_MODE
+				+ "_idx on "
+				+ ROUTE_TABLE
+				+ " ("
+				+ KEY_ROUTE_TRAVEL_MODE + ");";
+
+		private static final String SEARCHES_TABLE_CREATE = "create table IF NOT EXISTS "
+				+ SEARCHES_TABLE
 				+ " ("
 				+ KEY_ROWID
 				+ " integer primary key autoincrement, "
-				+ KEY_LOCATION_LAT
-				+ " integer, " + KEY_LOCATION_LNG + " integer);";
+				+ KEY_SEARCH_ORIGIN
+				+ " text not null, "
+				+ KEY_SEARCH_DEST
+				+ " text not null, "
+				+ KEY_SEARCH_TRAVEL_MODE
+				+ " text not null, "
+				+ KEY_SEARCH_CREATED
+				+ " integer, "
+				+ KEY_SEARCH_ACCESSED
+				+ " integer, "
+				+ KEY_SEARCH_SIZE
+				+ " integer, "
+				+ KEY_BOUNDS_NE_LAT
+				+ " integer, "
+				+ KEY_BOUNDS_NE_LNG
+				+ " integer, "
+				+ KEY_BOUNDS_SW_LAT
+				+ " integer, " + KEY_BOUNDS_SW_LNG + " integer);";
+
+		// searches are looked up by their key
+		private static final String SEARCHES_KEY_INDEX_CREATE = "create unique index IF NOT EXISTS "
+				+ SEARCHES_TABLE
+				+ "_key_idx on "
+				+ SEARCHES_TABLE
+				+ " ("
+				+ KEY_SEARCH_ORIGIN
+				+ ", "
+				+ KEY_SEARCH_DEST + ", " + KEY_SEARCH_TRAVEL_MODE + ");";
+
+		// the least recently used searches are evicted first
+		private static final String SEARCHES_ACCESSED_INDEX_CREATE = "create index IF NOT EXISTS "
+				+ SEARCHES_TABLE
+				+ "_"
+				+ KEY_SEARCH_ACCESSED
+				+ "_idx on "
+				+ SEARCHES_TABLE
+				+ " ("
+				+ KEY_SEARCH_ACCESSED + ");";
+
+		// routes are loaded by the search
+		private static final String ROUTE_SEARCH_INDEX_CREATE = "create index IF NOT EXISTS "
+				+ ROUTE_TABLE
+				+ "_"
+				+ KEY_ROUTE_SEARCH
+				+ "_idx on "
+				+ ROUTE_TABLE
+				+ " ("
+				+ KEY_ROUTE_SEARCH + ", " + KEY_ROWID + ");";
+
+		// version 2: routes are tagged with the travel mode
+		private static final String ROUTE_TABLE_ADD_TRAVEL_MODE = "alter table "
+				+ ROUTE_TABLE
+				+ " add column "
+				+ KEY_ROUTE_TRAVEL_MODE + " text;";
+
+		// version 5: routes belong to the stored searches
+		private static final String ROUTE_TABLE_ADD_SEARCH = "alter table "
+				+ ROUTE_TABLE
+				+ " add column "
+				+ KEY_ROUTE_SEARCH + " integer;";
+
+		// version 6: polylines are stored in the binary form. Text columns
+		// stay empty, the columns can't be dropped
+		private static final String ROUTE_TABLE_ADD_POLYLINE_DATA = "alter table "
+				+ ROUTE_TABLE
+				+ " add column "
+				+ KEY_ROUTE_POLYLINE_DATA + " blob;";
+
+		private static final String STEPS_TABLE_ADD_POINTS_DATA = "alter table "
+				+ STEPS_TABLE
+				+ " add column "
+				+ KEY_STEP_POINTS_DATA + " blob;";
+
+		// version 7: searches keep the combined bounds of their routes
+		private static final String[] SEARCHES_TABLE_ADD_BOUNDS = {
+				"alter table " + SEARCHES_TABLE + " add column "
+						+ KEY_BOUNDS_NE_LAT + " integer;",
+				"alter table " + SEARCHES_TABLE + " add column "
+						+ KEY_BOUNDS_NE_LNG + " integer;",
+				"alter table " + SEARCHES_TABLE + " add column "
+						+ KEY_BOUNDS_SW_LAT + " integer;",
+				"alter table " + SEARCHES_TABLE + " add column "
+						+ KEY_BOUNDS_SW_LNG + " integer;" };
+
+		private static final String SEARCHES_BOUNDS_MIGRATE = "update "
+				+ SEARCHES_TABLE + " set " + KEY_BOUNDS_NE_LAT + "="
+				+ routesAggregate("max", KEY_BOUNDS_NE_LAT) + ", "
+				+ KEY_BOUNDS_NE_LNG + "="
+				+ routesAggregate("max", KEY_BOUNDS_NE_LNG) + ", "
+				+ KEY_BOUNDS_SW_LAT + "="
+				+ routesAggregate("min", KEY_BOUNDS_SW_LAT) + ", "
+				+ KEY_BOUNDS_SW_LNG + "="
+				+ routesAggregate("min", KEY_BOUNDS_SW_LNG) + ";";
+
+		// version 3: coordinates are stored inline as fixed-point integers.
+		// Names of the version 2 schema, used only by the migration
+		private static final String LEGACY_LOCATIONS_TABLE = "locations";
+		private static final String LEGACY_ROUTE_TABLE = "route_v2";
+		private static final String LEGACY_STEPS_TABLE = "steps_v2";
+		private static final String LEGACY_KEY_LAT = "lat";
+		private static final String LEGACY_KEY_LNG = "lng";
+
+		private static final String ROUTE_TABLE_RENAME = "alter table "
+				+ ROUTE_TABLE + " rename to " + LEGACY_ROUTE_TABLE + ";";
+
+		private static final String STEPS_TABLE_RENAME = "alter table "
+				+ STEPS_TABLE + " rename to " + LEGACY_STEPS_TABLE + ";";
+
+		private static final String ROUTE_TABLE_MIGRATE = "insert into "
+				+ ROUTE_TABLE + " (" + KEY_ROWID + ", " + KEY_ROUTE_DIST
+				+ ", " + KEY_ROUTE_DURATION + ", " + KEY_ROUTE_END_ADDR + ", "
+				+ KEY_ROUTE_END_LAT + ", " + KEY_ROUTE_END_LNG + ", "
+				+ KEY_ROUTE_START_ADDR + ", " + KEY_ROUTE_START_LAT + ", "
+				+ KEY_ROUTE_START_LNG + ", " + KEY_BOUNDS_NE_LAT + ", "
+				+ KEY_BOUNDS_NE_LNG + ", " + KEY_BOUNDS_SW_LAT + ", "
+				+ KEY_BOUNDS_SW_LNG + ", " + KEY_ROUTE_POLYLINE + ", "
+				+ KEY_ROUTE_COPYRIGHTS + ", " + KEY_ROUTE_SUMMARY + ", "
+				+ KEY_ROUTE_WARNINGS + ", " + KEY_ROUTE_TRAVEL_MODE
+				+ ") select r." + KEY_ROWID + ", r." + KEY_ROUTE_DIST
+				+ ", r." + KEY_ROUTE_DURATION + ", r." + KEY_ROUTE_END_ADDR
+				+ ", " + legacyCoordinates("e") + ", r."
+				+ KEY_ROUTE_START_ADDR + ", " + legacyCoordinates("s") + ", "
+				+ legacyCoordinates("ne") + ", " + legacyCoordinates("sw")
+				+ ", r." + KEY_ROUTE_POLYLINE + ", r." + KEY_ROUTE_COPYRIGHTS
+				+ ", r." + KEY_ROUTE_SUMMARY + ", r." + KEY_ROUTE_WARNINGS
+				+ ", r." + KEY_ROUTE_TRAVEL_MODE + " from "
+				+ LEGACY_ROUTE_TABLE + " r"
+				+ legacyLocationJoin("e", "r.end_loc")
+				+ legacyLocationJoin("s", "r.start_loc")
+				+ legacyLocationJoin("ne", "r.bounds_tl")
+				+ legacyLocationJoin("sw", "r.bounds_br") + ";";
+
+		private static final String STEPS_TABLE_MIGRATE = "insert into "
+				+ STEPS_TABLE + " (" + KEY_ROWID + ", " + KEY_STEP_ROUTE
+				+ ", " + KEY_STEP_DIST + ", " + KEY_STEP_DURATION + ", "
+				+ KEY_STEP_END_LAT + ", " + KEY_STEP_END_LNG + ", "
+				+ KEY_STEP_START_LAT + ", " + KEY_STEP_START_LNG + ", "
+				+ KEY_STEP_TRAVEL_MODE + ", " + KEY_STEP_INSTRUCTIONS + ", "
+				+ KEY_STEP_POINTS + ") select st." + KEY_ROWID + ", st."
+				+ KEY_STEP_ROUTE + ", st." + KEY_STEP_DIST + ", st."
+				+ KEY_STEP_DURATION + ", " + legacyCoordinates("e") + ", "
+				+ legacyCoordinates("s") + ", st." + KEY_STEP_TRAVEL_MODE
+				+ ", st." + KEY_STEP_INSTRUCTIONS + ", st." + KEY_STEP_POINTS
+				+ " from " + LEGACY_STEPS_TABLE + " st"
+				+ legacyLocationJoin("e", "st.end_loc")
+				+ legacyLocationJoin("s", "st.start_loc") + ";";
 
 		/**
 		 * Constructor
@@ -151,7 +446,12 @@ public final class DbEngine {
 		public void onCreate(SQLiteDatabase database) {
 			database.execSQL(ROUTE_TABLE_CREATE);
 			database.execSQL(STEPS_TABLE_CREATE);
-			database.execSQL(LOCATION_TABLE_CREATE);
+			database.execSQL(STEPS_ROUTE_INDEX_CREATE);
+			database.execSQL(ROUTE_TRAVEL_MODE_INDEX_CREATE);
+			database.execSQL(SEARCHES_TABLE_CREATE);
+			database.execSQL(SEARCHES_KEY_INDEX_CREATE);
+			database.execSQL(SEARCHES_ACCESSED_INDEX_CREATE);
+			database.execSQL(ROUTE_SEARCH_INDEX_CREATE);
 		}
 
 		/*
@@ -166,98 +466,634 @@ public final class DbEngine {
 				int newVersion) {
 			Log.w(DbEngineHelper.class.getName(),
 					"Upgrading database from version " + oldVersion + " to "
-							+ newVersion + ", which will destroy all old data");
-			onCreate(database);
+							+ newVersion);
+			if (oldVersion < 2) {
+				database.execSQL(ROUTE_TABLE_ADD_TRAVEL_MODE);
+			}
+			if (oldVersion < 3) {
+				migrateInlineCoordinates(database);
+			}
+			if (oldVersion < 4) {
+				database.execSQL(STEPS_ROUTE_INDEX_CREATE);
+				database.execSQL(ROUTE_TRAVEL_MODE_INDEX_CREATE);
+			}
+			if (oldVersion < 5) {
+				// route table recreated by the version 3 migration has the
+				// column already
+				if (oldVersion >= 3) {
+					database.execSQL(ROUTE_TABLE_ADD_SEARCH);
+				}
+				database.execSQL(SEARCHES_TABLE_CREATE);
+				database.execSQL(SEARCHES_KEY_INDEX_CREATE);
+				database.execSQL(SEARCHES_ACCESSED_INDEX_CREATE);
+				database.execSQL(ROUTE_SEARCH_INDEX_CREATE);
+
+				// previous results are not keyed by any search, so they
+				// can't be found anymore
+				database.delete(STEPS_TABLE, null, null);
+				database.delete(ROUTE_TABLE, null, null);
+			}
+			if (oldVersion < 6) {
+				// tables recreated by the version 3 migration have the
+				// columns already
+				if (oldVersion >= 3) {
+					database.execSQL(ROUTE_TABLE_ADD_POLYLINE_DATA);
+					database.execSQL(STEPS_TABLE_ADD_POINTS_DATA);
+				}
+				migrateBinaryPolylines(database, ROUTE_TABLE,
+						KEY_ROUTE_POLYLINE, KEY_ROUTE_POLYLINE_DATA, "");
+				migrateBinaryPolylines(database, STEPS_TABLE,
+						KEY_STEP_POINTS, KEY_STEP_POINTS_DATA, null);
+			}
+			if (oldVersion < 7) {
+				// searches table created by the version 5 upgrade has the
+				// columns already
+				if (oldVersion >= 5) {
+					for (String statement : SEARCHES_TABLE_ADD_BOUNDS) {
+						database.execSQL(statement);
+					}
+				}
+				database.execSQL(SEARCHES_BOUNDS_MIGRATE);
+			}
+		}
+
+		/**
+		 * Converts the stored text polylines to the binary form. Runs within
+		 * the upgrade transaction
+		 * 
+		 * @param aDatabase
+		 *            Database
+		 * @param aTable
+		 *            Table name
+		 * @param aTextColumn
+		 *            Column of the text polyline
+		 * @param aDataColumn
+		 *            Column of the binary polyline
+		 * @param aEmptyText
+		 *            Value left in the text column
+		 */
+		private static void migrateBinaryPolylines(SQLiteDatabase aDatabase,
+				String aTable, String aTextColumn, String aDataColumn,
+				String aEmptyText) {
+			String[] columns = { KEY_ROWID, aTextColumn };
+			Cursor cursor = aDatabase.query(aTable, columns, aTextColumn
+					+ " is not null and length(" + aTextColumn + ") > 0",
+					null, null, null, null);
+
+			// rows are read first, the updated rows don't match the query
+			List<Long> ids = new ArrayList<Long>(cursor.getCount());
+			List<String> polylines = new ArrayList<String>(cursor.getCount());
+			while (cursor.moveToNext()) {
+				ids.add(cursor.getLong(0));
+				polylines.add(cursor.getString(1));
+			}
+			cursor.close();
+
+			SQLiteStatement update = aDatabase.compileStatement("update "
+					+ aTable + " set " + aDataColumn + "=?, " + aTextColumn
+					+ "=? where " + KEY_ROWID + "=?;");
+			try {
+				for (int i = 0; i < ids.size(); i++) {
+					update.bindBlob(1, PolylineCodec.toBinary(polylines.get(i)));
+					bindText(update, 2, aEmptyText);
+					update.bindLong(3, ids.get(i));
+					update.execute();
+				}
+			} finally {
+				update.close();
+			}
+		}
+
+		/**
+		 * Moves the coordinates from the locations table into the route and
+		 * steps rows. Row ids are preserved. Runs within the upgrade
+		 * transaction
+		 * 
+		 * @param aDatabase
+		 *            Database
+		 */
+		private static void migrateInlineCoordinates(SQLiteDatabase aDatabase) {
+			aDatabase.execSQL(ROUTE_TABLE_RENAME);
+			aDatabase.execSQL(STEPS_TABLE_RENAME);
+			aDatabase.execSQL(ROUTE_TABLE_CREATE);
+			aDatabase.execSQL(STEPS_TABLE_CREATE);
+
+			aDatabase.execSQL(ROUTE_TABLE_MIGRATE);
+			aDatabase.execSQL(STEPS_TABLE_MIGRATE);
+
+			aDatabase.execSQL("drop table " + LEGACY_ROUTE_TABLE + ";");
+			aDatabase.execSQL("drop table " + LEGACY_STEPS_TABLE + ";");
+			aDatabase.execSQL("drop table IF EXISTS "
+					+ LEGACY_LOCATIONS_TABLE + ";");
+		}
+
+		/**
+		 * Builds the aggregate of the route column over the routes of the
+		 * search
+		 * 
+		 * @param aFunction
+		 *            Aggregate function
+		 * @param aColumn
+		 *            Route column
+		 * @return Part of the update statement
+		 */
+		private static String routesAggregate(String aFunction, String aColumn) {
+			return "(select " + aFunction + "(" + aColumn + ") from "
+					+ ROUTE_TABLE + " where " + KEY_ROUTE_SEARCH + "="
+					+ SEARCHES_TABLE + "." + KEY_ROWID + ")";
+		}
+
+		/**
+		 * Builds the selection of the legacy location converted to the
+		 * fixed-point coordinates
+		 * 
+		 * @param aAlias
+		 *            Alias of the joined locations table
+		 * @return Part of the select statement
+		 */
+		private static String legacyCoordinates(String aAlias) {
+			return "cast(round(" + aAlias + "." + LEGACY_KEY_LAT + " * "
+					+ COORDINATE_SCALE + ") as integer), cast(round("
+					+ aAlias + "." + LEGACY_KEY_LNG + " * " + COORDINATE_SCALE
+					+ ") as integer)";
+		}
+
+		/**
+		 * Builds the join of the legacy locations table
+		 * 
+		 * @param aAlias
+		 *            Alias of the joined locations table
+		 * @param aReference
+		 *            Column referencing the location
+		 * @return Part of the select statement
+		 */
+		private static String legacyLocationJoin(String aAlias,
+				String aReference) {
+			return " left join " + LEGACY_LOCATIONS_TABLE + " " + aAlias
+					+ " on " + aAlias + "." + KEY_ROWID + "=" + aReference;
 		}
 	}
 
-	private Context iContext;
-	private SQLiteDatabase iDatabase;
-	private DbEngineHelper iDbHelper;
+	private static DbEngine sInstance;
+
+	private final SQLiteDatabase iDatabase;
+
+	// inserts are compiled once and reused for every row. Guarded by this
+	private final SQLiteStatement iRouteInsert;
+	private final SQLiteStatement iStepInsert;
+
+	// statistics of the last stored search. Guarded by this
+	private int iLastStoreSteps;
+	private long iLastStoreTime;
 
 	/**
-	 * Constructor
+	 * Constructor. Opens the database
 	 * 
 	 * @param aContext
 	 *            Context
+	 * @throws SQLException
+	 *             Exception if error
 	 */
-	public DbEngine(Context aContext) {
-		this.iContext = aContext;
-		open();
+	private DbEngine(Context aContext) throws SQLiteException {
+		DbEngineHelper helper = new DbEngineHelper(aContext);
+		iDatabase = helper.getWritableDatabase();
+
+		// readers are not blocked by the writer
+		iDatabase.enableWriteAheadLogging();
+
+		iRouteInsert = iDatabase.compileStatement(ROUTE_INSERT);
+		iStepInsert = iDatabase.compileStatement(STEP_INSERT);
 	}
 
 	/**
-	 * Opens database
+	 * Gets the instance of the DB engine. The database is opened once and
+	 * shared by the whole application
 	 * 
-	 * @throws SQLException
-	 *             Exception if error
+	 * @param aContext
+	 *            Context
+	 * @return Instance of the DB engine
+	 */
+	public static synchronized DbEngine getInstance(Context aContext) {
+		if (sInstance == null) {
+			sInstance = new DbEngine(aContext.getApplicationContext());
+		}
+		return sInstance;
+	}
+
+	/**
+	 * Finds the stored search and marks it as recently used
+	 * 
+	 * @param aOrigin
+	 *            Origin place
+	 * @param aDest
+	 *            Destination place
+	 * @param aTravelMode
+	 *            Travel mode
+	 * @return Search id or {@link #NO_SEARCH}, if the search is not stored
+	 */
+	public synchronized long findSearch(String aOrigin, String aDest,
+			String aTravelMode) {
+		long id = querySearchId(aOrigin, aDest, aTravelMode);
+		if (id != NO_SEARCH) {
+			ContentValues values = new ContentValues();
+			values.put(KEY_SEARCH_ACCESSED, System.currentTimeMillis());
+			iDatabase.update(SEARCHES_TABLE, values, KEY_ROWID + "=?",
+					new String[] { String.valueOf(id) });
+		}
+		return id;
+	}
+
+	/**
+	 * Gets the combined bounds of all routes of the search. Only the search
+	 * row is read
+	 * 
+	 * @param aSearchId
+	 *            Search id
+	 * @return Bounds or null, if the search is not stored or has no routes
+	 */
+	public RouteBounds getSearchBounds(long aSearchId) {
+		String[] columns = { KEY_BOUNDS_NE_LAT, KEY_BOUNDS_NE_LNG,
+				KEY_BOUNDS_SW_LAT, KEY_BOUNDS_SW_LNG };
+		String[] args = { String.valueOf(aSearchId) };
+		Cursor cursor = iDatabase.query(SEARCHES_TABLE, columns, KEY_ROWID
+				+ "=?", args, null, null, null);
+		RouteBounds bounds = null;
+		if (cursor.moveToFirst() && !cursor.isNull(0)) {
+			Location northEast = readLocation(cursor, KEY_BOUNDS_NE_LAT,
+					KEY_BOUNDS_NE_LNG);
+			Location southWest = readLocation(cursor, KEY_BOUNDS_SW_LAT,
+					KEY_BOUNDS_SW_LNG);
+			bounds = new RouteBounds(northEast, southWest);
+		}
+		cursor.close();
+
+		return bounds;
+	}
+
+	/**
+	 * Gets the time, when the result of the search was stored
+	 * 
+	 * @param aSearchId
+	 *            Search id
+	 * @return Time in milliseconds since epoch or 0, if the search is not
+	 *         stored
+	 */
+	public long getSearchTime(long aSearchId) {
+		String[] columns = { KEY_SEARCH_CREATED };
+		String[] args = { String.valueOf(aSearchId) };
+		Cursor cursor = iDatabase.query(SEARCHES_TABLE, columns, KEY_ROWID
+				+ "=?", args, null, null, null);
+		long time = 0;
+		if (cursor.moveToFirst()) {
+			time = cursor.getLong(0);
+		}
+		cursor.close();
+
+		return time;
+	}
+
+	/**
+	 * Stores the result of the search in a single transaction. The previous
+	 * result of the same search is replaced, keeping its id. The least
+	 * recently used searches are evicted, when the history exceeds its limits
+	 * 
+	 * @param aOrigin
+	 *            Origin place
+	 * @param aDest
+	 *            Destination place
+	 * @param aTravelMode
+	 *            Travel mode
+	 * @param aRoutes
+	 *            Found routes
+	 * @param aComplete
+	 *            True, if the result is complete. Incomplete result is stored
+	 *            as stale, so it's refreshed on the next search
+	 * @param aEvicted
+	 *            List for the ids of the evicted searches. Can be null
+	 * @return Search id
+	 */
+	public synchronized long storeSearch(String aOrigin, String aDest,
+			String aTravelMode, List<Route> aRoutes, boolean aComplete,
+			List<Long> aEvicted) {
+		long start = SystemClock.uptimeMillis();
+		int steps = 0;
+		long size = 0;
+		long id = NO_SEARCH;
+
+		iDatabase.beginTransaction();
+		try {
+			for (Route route : aRoutes) {
+				size += estimateSize(route);
+				steps += route.iSteps.size();
+			}
+
+			long now = System.currentTimeMillis();
+			ContentValues values = new ContentValues();
+			values.put(KEY_SEARCH_CREATED, aComplete ? now : 0);
+			values.put(KEY_SEARCH_ACCESSED, now);
+			values.put(KEY_SEARCH_SIZE, size);
+			putCombinedBounds(values, aRoutes);
+
+			// previous result of the search is replaced, the id is kept
+			id = querySearchId(aOrigin, aDest, aTravelMode);
+			if (id != NO_SEARCH) {
+				deleteSearchRoutes(id);
+				iDatabase.update(SEARCHES_TABLE, values, KEY_ROWID + "=?",
+						new String[] { String.valueOf(id) });
+			} else {
+				values.put(KEY_SEARCH_ORIGIN, normalize(aOrigin));
+				values.put(KEY_SEARCH_DEST, normalize(aDest));
+				values.put(KEY_SEARCH_TRAVEL_MODE, aTravelMode);
+				id = iDatabase.insert(SEARCHES_TABLE, null, values);
+			}
+
+			for (Route route : aRoutes) {
+				insertRouteRows(route, id);
+			}
+
+			evict(aEvicted);
+			iDatabase.setTransactionSuccessful();
+		} finally {
+			iDatabase.endTransaction();
+		}
+
+		iLastStoreSteps = steps;
+		iLastStoreTime = SystemClock.uptimeMillis() - start;
+		return id;
+	}
+
+	/**
+	 * Gets the number of steps stored by the last {@link #storeSearch}. Used
+	 * for measuring the insert latency by the step count
+	 * 
+	 * @return Number of steps
+	 */
+	public synchronized int getLastStoreSteps() {
+		return iLastStoreSteps;
+	}
+
+	/**
+	 * Gets the time of the last {@link #storeSearch}, including the commit of
+	 * the transaction
+	 * 
+	 * @return Time in milliseconds
+	 */
+	public synchronized long getLastStoreTime() {
+		return iLastStoreTime;
+	}
+
+	/**
+	 * Queries the id of the stored search
+	 * 
+	 * @param aOrigin
+	 *            Origin place
+	 * @param aDest
+	 *            Destination place
+	 * @param aTravelMode
+	 *            Travel mode
+	 * @return Search id or {@link #NO_SEARCH}, if the search is not stored
+	 */
+	private long querySearchId(String aOrigin, String aDest, String aTravelMode) {
+		String[] columns = { KEY_ROWID };
+		String selection = KEY_SEARCH_ORIGIN + "=? and " + KEY_SEARCH_DEST
+				+ "=? and " + KEY_SEARCH_TRAVEL_MODE + "=?";
+		String[] args = { normalize(aOrigin), normalize(aDest), aTravelMode };
+
+		Cursor cursor = iDatabase.query(SEARCHES_TABLE, columns, selection,
+				args, null, null, null);
+		long id = NO_SEARCH;
+		if (cursor.moveToFirst()) {
+			id = cursor.getLong(0);
+		}
+		cursor.close();
+
+		return id;
+	}
+
+	/**
+	 * Deletes the search with its routes and steps. Should be called within a
+	 * transaction
+	 * 
+	 * @param aSearchId
+	 *            Search id
+	 */
+	private void deleteSearch(long aSearchId) {
+		deleteSearchRoutes(aSearchId);
+		iDatabase.delete(SEARCHES_TABLE, KEY_ROWID + "=?",
+				new String[] { String.valueOf(aSearchId) });
+	}
+
+	/**
+	 * Deletes the routes and steps of the search. Should be called within a
+	 * transaction
+	 * 
+	 * @param aSearchId
+	 *            Search id
 	 */
-	private void open() throws SQLiteException {
-		iDbHelper = new DbEngineHelper(iContext);
-		iDatabase = iDbHelper.getWritableDatabase();
+	private void deleteSearchRoutes(long aSearchId) {
+		String[] args = { String.valueOf(aSearchId) };
+		iDatabase.delete(STEPS_TABLE, KEY_STEP_ROUTE + " in (select "
+				+ KEY_ROWID + " from " + ROUTE_TABLE + " where "
+				+ KEY_ROUTE_SEARCH + "=?)", args);
+		iDatabase.delete(ROUTE_TABLE, KEY_ROUTE_SEARCH + "=?", args);
 	}
 
 	/**
-	 * Closes DB
+	 * Evicts the least recently used searches, until the history fits its
+	 * limits. The most recent search is always kept. Should be called within a
+	 * transaction
+	 * 
+	 * @param aEvicted
+	 *            List for the ids of the evicted searches. Can be null
 	 */
-	public void close() {
-		iDbHelper.close();
+	private void evict(List<Long> aEvicted) {
+		Cursor cursor = iDatabase.rawQuery("select count(*), sum("
+				+ KEY_SEARCH_SIZE + ") from " + SEARCHES_TABLE, null);
+		int count = 0;
+		long size = 0;
+		if (cursor.moveToFirst()) {
+			count = cursor.getInt(0);
+			size = cursor.getLong(1);
+		}
+		cursor.close();
+
+		if (count <= MAX_SEARCHES && size <= MAX_SEARCHES_SIZE) {
+			return;
+		}
+
+		String[] columns = { KEY_ROWID, KEY_SEARCH_SIZE };
+		cursor = iDatabase.query(SEARCHES_TABLE, columns, null, null, null,
+				null, KEY_SEARCH_ACCESSED);
+
+		List<Long> evicted = new ArrayList<Long>();
+		while (count > 1 && (count > MAX_SEARCHES || size > MAX_SEARCHES_SIZE)
+				&& cursor.moveToNext()) {
+			evicted.add(cursor.getLong(0));
+			size -= cursor.getLong(1);
+			count--;
+		}
+		cursor.close();
+
+		for (long id : evicted) {
+			deleteSearch(id);
+		}
+		if (aEvicted != null) {
+			aEvicted.addAll(evicted);
+		}
 	}
 
 	/**
-	 * Create a new route item
+	 * Estimates the size of the stored route
 	 * 
 	 * @param aRoute
 	 *            Route
-	 * @return Row id, otherwise return a -1 to indicate failure
+	 * @return Estimated size in bytes
 	 */
-	public long insertRoute(Route aRoute) {
-
-		// Insert locations first
-		long endLocId = insertLocation(aRoute.iEndLocation);
-		long startLocId = insertLocation(aRoute.iStartLocation);
-		long boundsTlId = insertLocation(aRoute.iBounds.getNorthEast());
-		long boundsBrId = insertLocation(aRoute.iBounds.getSouthWest());
-
-		// insert route data
-		ContentValues initialValues = new ContentValues();
-		initialValues.put(KEY_ROUTE_DIST, aRoute.iDistance);
-		initialValues.put(KEY_ROUTE_DURATION, aRoute.iDuration);
-		initialValues.put(KEY_ROUTE_END_ADDR, aRoute.iEndAddress);
-		initialValues.put(KEY_ROUTE_END_LOC, endLocId);
-		initialValues.put(KEY_ROUTE_START_ADDR, aRoute.iStartAddress);
-		initialValues.put(KEY_ROUTE_START_LOC, startLocId);
-		initialValues.put(KEY_BOUNDS_TL, boundsTlId);
-		initialValues.put(KEY_BOUNDS_BR, boundsBrId);
-		initialValues.put(KEY_ROUTE_POLYLINE, aRoute.iEncodedPolyline);
-		initialValues
-				.put(KEY_ROUTE_COPYRIGHTS, aRoute.iDetails.getCopyrights());
-		initialValues.put(KEY_ROUTE_SUMMARY, aRoute.iDetails.getSummary());
-		initialValues.put(KEY_ROUTE_WARNINGS, aRoute.iDetails.getWarnings());
-
-		long id = iDatabase.insert(ROUTE_TABLE, null, initialValues);
+	private static long estimateSize(Route aRoute) {
+		// fixed-size columns of the route row
+		long size = 18 * 8;
+		size += textSize(aRoute.iEndAddress);
+		size += textSize(aRoute.iStartAddress);
+		size += blobSize(aRoute.getPolylineData());
+		size += textSize(aRoute.iDetails.getCopyrights());
+		size += textSize(aRoute.iDetails.getSummary());
+		size += textSize(aRoute.iDetails.getWarnings());
 
-		// insert steps
 		for (RouteStep step : aRoute.iSteps) {
-			insertStep(step, id);
+			// fixed-size columns of the step row
+			size += 8 * 8;
+			size += textSize(step.getInstructions());
+			size += blobSize(step.getPointsData());
 		}
+		return size;
+	}
 
-		return id;
+	/**
+	 * Puts the combined bounds of the routes to the search values. The bounds
+	 * are cleared, if there are no routes
+	 * 
+	 * @param aValues
+	 *            Values of the search row
+	 * @param aRoutes
+	 *            Routes of the search
+	 */
+	private static void putCombinedBounds(ContentValues aValues,
+			List<Route> aRoutes) {
+		if (aRoutes.isEmpty()) {
+			aValues.putNull(KEY_BOUNDS_NE_LAT);
+			aValues.putNull(KEY_BOUNDS_NE_LNG);
+			aValues.putNull(KEY_BOUNDS_SW_LAT);
+			aValues.putNull(KEY_BOUNDS_SW_LNG);
+			return;
+		}
+
+		long northLat = Long.MIN_VALUE;
+		long eastLng = Long.MIN_VALUE;
+		long southLat = Long.MAX_VALUE;
+		long westLng = Long.MAX_VALUE;
+		for (Route route : aRoutes) {
+			Location northEast = route.iBounds.getNorthEast();
+			Location southWest = route.iBounds.getSouthWest();
+			northLat = Math.max(northLat,
+					toFixedPoint(northEast.getLatitude()));
+			eastLng = Math.max(eastLng, toFixedPoint(northEast.getLongitude()));
+			southLat = Math.min(southLat,
+					toFixedPoint(southWest.getLatitude()));
+			westLng = Math.min(westLng, toFixedPoint(southWest.getLongitude()));
+		}
+
+		aValues.put(KEY_BOUNDS_NE_LAT, northLat);
+		aValues.put(KEY_BOUNDS_NE_LNG, eastLng);
+		aValues.put(KEY_BOUNDS_SW_LAT, southLat);
+		aValues.put(KEY_BOUNDS_SW_LNG, westLng);
 	}
 
 	/**
-	 * Inserts location to the DB
+	 * Gets the size of the stored text
 	 * 
-	 * @param aLocation
-	 *            Location for storing
+	 * @param aText
+	 *            Text. Can be null
+	 * @return Size in bytes
+	 */
+	private static long textSize(String aText) {
+		return aText == null ? 0 : aText.length();
+	}
+
+	/**
+	 * Gets the size of the stored blob
+	 * 
+	 * @param aData
+	 *            Blob. Can be null
+	 * @return Size in bytes
+	 */
+	private static long blobSize(byte[] aData) {
+		return aData == null ? 0 : aData.length;
+	}
+
+	/**
+	 * Normalizes the place of the search key
+	 * 
+	 * @param aPlace
+	 *            Place
+	 * @return Normalized place
+	 */
+	private static String normalize(String aPlace) {
+		return aPlace.trim().replaceAll("\\s+", " ").toLowerCase(Locale.US);
+	}
+
+	/**
+	 * Gets the key of the search. Searches with the same key share the stored
+	 * result
+	 * 
+	 * @param aOrigin
+	 *            Origin place
+	 * @param aDest
+	 *            Destination place
+	 * @param aTravelMode
+	 *            Travel mode
+	 * @return Search key
+	 */
+	public static String getSearchKey(String aOrigin, String aDest,
+			String aTravelMode) {
+		return normalize(aOrigin) + '|' + normalize(aDest) + '|'
+				+ aTravelMode;
+	}
+
+	/**
+	 * Inserts the route rows. Should be called within a transaction
+	 * 
+	 * @param aRoute
+	 *            Route
+	 * @param aSearchId
+	 *            Search the route belongs to
 	 * @return Row id, otherwise return a -1 to indicate failure
 	 */
-	private long insertLocation(Location aLocation) {
-		ContentValues initialValues = new ContentValues();
-		initialValues.put(KEY_LOCATION_LAT, aLocation.getLatitude());
-		initialValues.put(KEY_LOCATION_LNG, aLocation.getLongitude());
+	private long insertRouteRows(Route aRoute, long aSearchId) {
+		SQLiteStatement statement = iRouteInsert;
+		statement.clearBindings();
+		statement.bindLong(1, aRoute.iDistance);
+		statement.bindLong(2, aRoute.iDuration);
+		bindText(statement, 3, aRoute.iEndAddress);
+		bindLocation(statement, 4, aRoute.iEndLocation);
+		bindText(statement, 6, aRoute.iStartAddress);
+		bindLocation(statement, 7, aRoute.iStartLocation);
+		bindLocation(statement, 9, aRoute.iBounds.getNorthEast());
+		bindLocation(statement, 11, aRoute.iBounds.getSouthWest());
+		// only the binary polyline is stored, the text column is not null
+		statement.bindString(13, "");
+		bindText(statement, 14, aRoute.iDetails.getCopyrights());
+		bindText(statement, 15, aRoute.iDetails.getSummary());
+		bindText(statement, 16, aRoute.iDetails.getWarnings());
+		bindText(statement, 17, aRoute.iTravelMode);
+		statement.bindLong(18, aSearchId);
+		bindBlob(statement, 19, aRoute.getPolylineData());
+
+		long id = statement.executeInsert();
 
-		long id = iDatabase.insert(LOCATIONS_TABLE, null, initialValues);
+		// insert steps
+		for (RouteStep step : aRoute.iSteps) {
+			insertStep(step, id);
+		}
 
 		return id;
 	}
@@ -272,165 +1108,316 @@ public final class DbEngine {
 	 * @return Row id, otherwise return a -1 to indicate failure
 	 */
 	private long insertStep(RouteStep aStep, long aRouteId) {
-		// insert location first
-		long endLocId = insertLocation(aStep.getEndLocation());
-		long startLocId = insertLocation(aStep.getStartLocation());
-
-		// insert step values
-		ContentValues initialValues = new ContentValues();
-		initialValues.put(KEY_STEP_ROUTE, aRouteId);
-		initialValues.put(KEY_STEP_DIST, aStep.getDistance());
-		initialValues.put(KEY_STEP_DURATION, aStep.getDuration());
-		initialValues.put(KEY_STEP_END_LOC, endLocId);
-		initialValues.put(KEY_STEP_START_LOC, startLocId);
-		initialValues.put(KEY_STEP_TRAVEL_MODE, aStep.getTravelMode());
-		initialValues.put(KEY_STEP_INSTRUCTIONS, aStep.getInstructions());
-		initialValues.put(KEY_STEP_POINTS, aStep.getPoints());
-
-		long id = iDatabase.insert(STEPS_TABLE, null, initialValues);
+		SQLiteStatement statement = iStepInsert;
+		statement.clearBindings();
+		statement.bindLong(1, aRouteId);
+		statement.bindLong(2, aStep.getDistance());
+		statement.bindLong(3, aStep.getDuration());
+		bindLocation(statement, 4, aStep.getEndLocation());
+		bindLocation(statement, 6, aStep.getStartLocation());
+		bindText(statement, 8, aStep.getTravelMode());
+		bindText(statement, 9, aStep.getInstructions());
+		statement.bindNull(10);
+		bindBlob(statement, 11, aStep.getPointsData());
+
+		long id = statement.executeInsert();
 
 		return id;
 	}
 
 	/**
-	 * Deletes all tables
+	 * Binds the text value to the statement. Null values are bound as NULL
 	 * 
-	 * @return True if succeed. Otherwise false.
+	 * @param aStatement
+	 *            Statement
+	 * @param aIndex
+	 *            1-based index of the parameter
+	 * @param aValue
+	 *            Value to bind
 	 */
-	public boolean deleteAll() {
-		boolean result = iDatabase.delete(LOCATIONS_TABLE, null, null) > 0;
-		result &= iDatabase.delete(STEPS_TABLE, null, null) > 0;
-		result &= iDatabase.delete(ROUTE_TABLE, null, null) > 0;
-		return result;
+	private static void bindText(SQLiteStatement aStatement, int aIndex,
+			String aValue) {
+		if (aValue == null) {
+			aStatement.bindNull(aIndex);
+		} else {
+			aStatement.bindString(aIndex, aValue);
+		}
 	}
 
 	/**
-	 * Gets the list of all routes in the DB
+	 * Binds the blob value to the statement. Null values are bound as NULL
 	 * 
-	 * @return List of routes
+	 * @param aStatement
+	 *            Statement
+	 * @param aIndex
+	 *            1-based index of the parameter
+	 * @param aValue
+	 *            Value to bind
 	 */
-	public List<Route> getAllRoutes() {
-		String[] routeColumns = { KEY_ROWID, KEY_ROUTE_DIST,
-				KEY_ROUTE_DURATION, KEY_ROUTE_END_ADDR, KEY_ROUTE_END_LOC,
-				KEY_ROUTE_START_ADDR, KEY_ROUTE_START_LOC, KEY_BOUNDS_TL,
-				KEY_BOUNDS_BR, KEY_ROUTE_POLYLINE, KEY_ROUTE_COPYRIGHTS,
-				KEY_ROUTE_SUMMARY, KEY_ROUTE_WARNINGS };
-
-		Cursor routeCursor = iDatabase.query(ROUTE_TABLE, routeColumns, null,
-				null, null, null, null);
-
-		if (routeCursor.getCount() == 0) {
-			return Collections.emptyList();
+	private static void bindBlob(SQLiteStatement aStatement, int aIndex,
+			byte[] aValue) {
+		if (aValue == null) {
+			aStatement.bindNull(aIndex);
+		} else {
+			aStatement.bindBlob(aIndex, aValue);
 		}
+	}
 
-		routeCursor.moveToFirst();
-		List<Route> routes = new ArrayList<Route>();
-
-		do {
-			// getting item id
-			int columnIndex = routeCursor.getColumnIndex(KEY_ROWID);
-			int id = routeCursor.getInt(columnIndex);
-			routes.add(getRoute(id));
-		} while (routeCursor.moveToNext());
+	/**
+	 * Binds the location to the statement as two fixed-point coordinates:
+	 * latitude and longitude
+	 * 
+	 * @param aStatement
+	 *            Statement
+	 * @param aIndex
+	 *            1-based index of the latitude parameter. Longitude is bound
+	 *            to the next one
+	 * @param aLocation
+	 *            Location to bind
+	 */
+	private static void bindLocation(SQLiteStatement aStatement, int aIndex,
+			Location aLocation) {
+		aStatement.bindLong(aIndex, toFixedPoint(aLocation.getLatitude()));
+		aStatement.bindLong(aIndex + 1, toFixedPoint(aLocation.getLongitude()));
+	}
 
-		routeCursor.close();
+	/**
+	 * Gets the size of the database files, including the write-ahead log.
+	 * Used for measuring the storage format
+	 * 
+	 * @return Size in bytes
+	 */
+	public long getDatabaseSize() {
+		String path = iDatabase.getPath();
+		return new File(path).length() + new File(path + "-wal").length();
+	}
 
-		return routes;
+	/**
+	 * Deletes all tables
+	 * 
+	 * @return True if succeed. Otherwise false.
+	 */
+	public synchronized boolean deleteAll() {
+		boolean result = false;
+		iDatabase.beginTransaction();
+		try {
+			result = iDatabase.delete(STEPS_TABLE, null, null) > 0;
+			result &= iDatabase.delete(ROUTE_TABLE, null, null) > 0;
+			result &= iDatabase.delete(SEARCHES_TABLE, null, null) > 0;
+			iDatabase.setTransactionSuccessful();
+		} finally {
+			iDatabase.endTransaction();
+		}
+		return result;
 	}
 
 	/**
-	 * Gets object Route from the DB by id
+	 * Gets object Route from the DB by id. The route is loaded by two
+	 * queries: one for the route itself and one for its steps
 	 * 
 	 * @param aItemId
 	 *            Id for search
 	 * @return Filled object Route
 	 */
 	public Route getRoute(int aItemId) {
-		String[] columns = { KEY_ROWID, KEY_ROUTE_DIST, KEY_ROUTE_DURATION,
-				KEY_ROUTE_END_ADDR, KEY_ROUTE_END_LOC, KEY_ROUTE_START_ADDR,
-				KEY_ROUTE_START_LOC, KEY_BOUNDS_TL, KEY_BOUNDS_BR,
-				KEY_ROUTE_POLYLINE, KEY_ROUTE_COPYRIGHTS, KEY_ROUTE_SUMMARY,
-				KEY_ROUTE_WARNINGS };
-
-		Cursor cursor = iDatabase.query(true, ROUTE_TABLE, columns, KEY_ROWID
-				+ "=" + aItemId, null, null, null, null, null);
-		cursor.moveToFirst();
+		String[] args = { String.valueOf(aItemId) };
+		Cursor cursor = iDatabase.query(ROUTE_TABLE, SUMMARY_COLUMNS,
+				KEY_ROWID + "=?", args, null, null, null);
 
-		if (cursor.getCount() == 0) {
+		if (!cursor.moveToFirst()) {
+			cursor.close();
 			return null;
 		}
 
 		Route route = new Route();
+		readSummary(cursor, route);
+		cursor.close();
+
+		// getting route steps
+		route.iSteps = getSteps(aItemId);
+
+		return route;
+	}
+
+	/**
+	 * Reads the bounding boxes of all stored routes and steps. Each table is
+	 * read by a single query. The step points are read only for their box,
+	 * no route or step objects are created
+	 * 
+	 * @param aVisitor
+	 *            Receiver of the boxes
+	 */
+	void readGeometry(GeometryVisitor aVisitor) {
+		String[] routeColumns = { KEY_ROWID, KEY_BOUNDS_NE_LAT,
+				KEY_BOUNDS_NE_LNG, KEY_BOUNDS_SW_LAT, KEY_BOUNDS_SW_LNG };
+		Cursor cursor = iDatabase.query(ROUTE_TABLE, routeColumns, null,
+				null, null, null, null);
+		while (cursor.moveToNext()) {
+			aVisitor.route(cursor.getInt(0),
+					fromFixedPoint(cursor.getLong(3)),
+					fromFixedPoint(cursor.getLong(4)),
+					fromFixedPoint(cursor.getLong(1)),
+					fromFixedPoint(cursor.getLong(2)));
+		}
+		cursor.close();
+
+		String[] stepColumns = { KEY_ROWID, KEY_STEP_ROUTE,
+				KEY_STEP_START_LAT, KEY_STEP_START_LNG, KEY_STEP_END_LAT,
+				KEY_STEP_END_LNG, KEY_STEP_POINTS_DATA };
+		cursor = iDatabase.query(STEPS_TABLE, stepColumns, null, null, null,
+				null, null);
+		BoxSink box = new BoxSink();
+		while (cursor.moveToNext()) {
+			box.reset();
+			box.point(fromFixedPoint(cursor.getLong(2)),
+					fromFixedPoint(cursor.getLong(3)));
+			box.point(fromFixedPoint(cursor.getLong(4)),
+					fromFixedPoint(cursor.getLong(5)));
+
+			byte[] points = cursor.getBlob(6);
+			if (points != null) {
+				PolylineCodec.decode(ByteBuffer.wrap(points), box);
+			}
+			aVisitor.step(cursor.getInt(0), cursor.getInt(1), box.iSouth,
+					box.iWest, box.iNorth, box.iEast);
+		}
+		cursor.close();
+	}
+
+	/**
+	 * Gets the line of the step. Only the step points are read
+	 * 
+	 * @param aStepId
+	 *            Step id
+	 * @return Coordinates of the points: lat, lng. At least the start and
+	 *         the end of the step. Null, if the step is not stored
+	 */
+	double[] getStepLine(int aStepId) {
+		String[] columns = { KEY_STEP_START_LAT, KEY_STEP_START_LNG,
+				KEY_STEP_END_LAT, KEY_STEP_END_LNG, KEY_STEP_POINTS_DATA };
+		String[] args = { String.valueOf(aStepId) };
+		Cursor cursor = iDatabase.query(STEPS_TABLE, columns, KEY_ROWID
+				+ "=?", args, null, null, null);
+
+		double[] line = null;
+		if (cursor.moveToFirst()) {
+			byte[] points = cursor.getBlob(4);
+			if (points != null) {
+				ByteBuffer data = ByteBuffer.wrap(points);
+				line = new double[2 * PolylineCodec.countPoints(data)];
+				if (PolylineCodec.decode(data, line) < 2) {
+					line = null;
+				}
+			}
+
+			// steps without the line are straight
+			if (line == null) {
+				line = new double[] { fromFixedPoint(cursor.getLong(0)),
+						fromFixedPoint(cursor.getLong(1)),
+						fromFixedPoint(cursor.getLong(2)),
+						fromFixedPoint(cursor.getLong(3)) };
+			}
+		}
+		cursor.close();
+
+		return line;
+	}
+
+	/**
+	 * Gets the summaries of the routes found by the search. Steps are not
+	 * loaded, so all routes are loaded by a single query
+	 * 
+	 * @param aSearchId
+	 *            Search id
+	 * @return List of route summaries in the insertion order
+	 */
+	public List<RouteSummary> getRouteSummaries(long aSearchId) {
+		String[] args = { String.valueOf(aSearchId) };
+		Cursor cursor = iDatabase.query(ROUTE_TABLE, SUMMARY_COLUMNS,
+				KEY_ROUTE_SEARCH + "=?", args, null, null, KEY_ROWID);
+
+		List<RouteSummary> summaries = new ArrayList<RouteSummary>(
+				cursor.getCount());
+		while (cursor.moveToNext()) {
+			RouteSummary summary = new RouteSummary();
+			readSummary(cursor, summary);
+			summaries.add(summary);
+		}
+		cursor.close();
+
+		return summaries;
+	}
+
+	/**
+	 * Reads the route summary from the current row of the cursor
+	 * 
+	 * @param aCursor
+	 *            Cursor with {@link #SUMMARY_COLUMNS}
+	 * @param aSummary
+	 *            Summary to fill
+	 */
+	private static void readSummary(Cursor aCursor, RouteSummary aSummary) {
+		// getting route id
+		int columnIndex = aCursor.getColumnIndex(KEY_ROWID);
+		aSummary.iId = aCursor.getInt(columnIndex);
 
 		// getting route distance
-		int columnIndex = cursor.getColumnIndex(KEY_ROUTE_DIST);
-		route.iDistance = cursor.getInt(columnIndex);
+		columnIndex = aCursor.getColumnIndex(KEY_ROUTE_DIST);
+		aSummary.iDistance = aCursor.getInt(columnIndex);
 
 		// getting route duration
-		columnIndex = cursor.getColumnIndex(KEY_ROUTE_DURATION);
-		route.iDuration = cursor.getInt(columnIndex);
+		columnIndex = aCursor.getColumnIndex(KEY_ROUTE_DURATION);
+		aSummary.iDuration = aCursor.getInt(columnIndex);
 
 		// getting route end address
-		columnIndex = cursor.getColumnIndex(KEY_ROUTE_END_ADDR);
-		route.iEndAddress = cursor.getString(columnIndex);
+		columnIndex = aCursor.getColumnIndex(KEY_ROUTE_END_ADDR);
+		aSummary.iEndAddress = aCursor.getString(columnIndex);
 
 		// getting route end location
-		columnIndex = cursor.getColumnIndex(KEY_ROUTE_END_LOC);
-		int endLocationId = cursor.getInt(columnIndex);
-		route.iEndLocation = getLocation(endLocationId);
+		aSummary.iEndLocation = readLocation(aCursor, KEY_ROUTE_END_LAT,
+				KEY_ROUTE_END_LNG);
 
 		// getting route start address
-		columnIndex = cursor.getColumnIndex(KEY_ROUTE_START_ADDR);
-		route.iStartAddress = cursor.getString(columnIndex);
+		columnIndex = aCursor.getColumnIndex(KEY_ROUTE_START_ADDR);
+		aSummary.iStartAddress = aCursor.getString(columnIndex);
 
 		// getting route start location
-		columnIndex = cursor.getColumnIndex(KEY_ROUTE_START_LOC);
-		int startLocationId = cursor.getInt(columnIndex);
-		route.iStartLocation = getLocation(startLocationId);
-		
-		// getting route polyline
-		columnIndex = cursor.getColumnIndex(KEY_ROUTE_POLYLINE);
-		route.iEncodedPolyline = cursor.getString(columnIndex);
+		aSummary.iStartLocation = readLocation(aCursor, KEY_ROUTE_START_LAT,
+				KEY_ROUTE_START_LNG);
 
-		// getting route bounds TL
-		columnIndex = cursor.getColumnIndex(KEY_BOUNDS_TL);
-		int boundsTlId = cursor.getInt(columnIndex);
-		Location northEast = getLocation(boundsTlId);
+		// getting route travel mode
+		columnIndex = aCursor.getColumnIndex(KEY_ROUTE_TRAVEL_MODE);
+		aSummary.iTravelMode = aCursor.getString(columnIndex);
 
-		// getting route bounds BR
-		columnIndex = cursor.getColumnIndex(KEY_BOUNDS_BR);
-		int boundsBrId = cursor.getInt(columnIndex);
-		Location southWest = getLocation(boundsBrId);
+		// getting route polyline
+		columnIndex = aCursor.getColumnIndex(KEY_ROUTE_POLYLINE_DATA);
+		aSummary.iPolylineData = aCursor.getBlob(columnIndex);
 
-		route.iBounds = new RouteBounds(northEast, southWest);
+		// getting route bounds
+		Location northEast = readLocation(aCursor, KEY_BOUNDS_NE_LAT,
+				KEY_BOUNDS_NE_LNG);
+		Location southWest = readLocation(aCursor, KEY_BOUNDS_SW_LAT,
+				KEY_BOUNDS_SW_LNG);
+		aSummary.iBounds = new RouteBounds(northEast, southWest);
 
 		// getting route copyrights
-		columnIndex = cursor.getColumnIndex(KEY_ROUTE_COPYRIGHTS);
-		String copyrights = cursor.getString(columnIndex);
+		columnIndex = aCursor.getColumnIndex(KEY_ROUTE_COPYRIGHTS);
+		String copyrights = aCursor.getString(columnIndex);
 
 		// getting route summary
-		columnIndex = cursor.getColumnIndex(KEY_ROUTE_SUMMARY);
-		String summary = cursor.getString(columnIndex);
+		columnIndex = aCursor.getColumnIndex(KEY_ROUTE_SUMMARY);
+		String summary = aCursor.getString(columnIndex);
 
 		// getting route warnings
-		columnIndex = cursor.getColumnIndex(KEY_ROUTE_WARNINGS);
-		String warnings = cursor.getString(columnIndex);
+		columnIndex = aCursor.getColumnIndex(KEY_ROUTE_WARNINGS);
+		String warnings = aCursor.getString(columnIndex);
 
 		// filling route details
 		RouteDetails details = new RouteDetails();
 		details.setCopyrights(copyrights);
 		details.setSummary(summary);
 		details.setWarnings(warnings);
-		route.iDetails = details;
-
-		// getting route steps
-		columnIndex = cursor.getColumnIndex(KEY_ROWID);
-		int routeId = cursor.getInt(columnIndex);
-		route.iSteps = getSteps(routeId);
-
-		cursor.close();
-
-		return route;
+		aSummary.iDetails = details;
 	}
 
 	/**
@@ -441,37 +1428,36 @@ public final class DbEngine {
 	 * @return List of RouteSteps
 	 */
 	private List<RouteStep> getSteps(int aRouteId) {
-		String[] columns = { KEY_ROWID, KEY_STEP_ROUTE, KEY_STEP_DIST,
-				KEY_STEP_DURATION, KEY_STEP_START_LOC, KEY_STEP_END_LOC,
-				KEY_STEP_TRAVEL_MODE, KEY_STEP_INSTRUCTIONS, KEY_STEP_POINTS };
+		String[] columns = { KEY_ROWID, KEY_STEP_DIST, KEY_STEP_DURATION,
+				KEY_STEP_START_LAT, KEY_STEP_START_LNG, KEY_STEP_END_LAT,
+				KEY_STEP_END_LNG, KEY_STEP_TRAVEL_MODE, KEY_STEP_INSTRUCTIONS,
+				KEY_STEP_POINTS_DATA };
 
-		Cursor cursor = iDatabase.query(true, STEPS_TABLE, columns,
-				KEY_STEP_ROUTE + "=" + aRouteId, null, null, null, null, null);
+		String[] args = { String.valueOf(aRouteId) };
+		Cursor cursor = iDatabase.query(STEPS_TABLE, columns, KEY_STEP_ROUTE
+				+ "=?", args, null, null, KEY_ROWID);
 
-		if (cursor.getCount() == 0) {
+		if (!cursor.moveToFirst()) {
+			cursor.close();
 			return Collections.emptyList();
 		}
 
-		cursor.moveToFirst();
-
-		List<RouteStep> steps = new ArrayList<RouteStep>();
+		List<RouteStep> steps = new ArrayList<RouteStep>(cursor.getCount());
 
 		do {
 			// getting step end location
-			int columnIndex = cursor.getColumnIndex(KEY_STEP_END_LOC);
-			int endLocationId = cursor.getInt(columnIndex);
-			Location endLocation = getLocation(endLocationId);
+			Location endLocation = readLocation(cursor, KEY_STEP_END_LAT,
+					KEY_STEP_END_LNG);
 
 			// getting route start location
-			columnIndex = cursor.getColumnIndex(KEY_STEP_START_LOC);
-			int startLocationId = cursor.getInt(columnIndex);
-			Location startLocation = getLocation(startLocationId);
+			Location startLocation = readLocation(cursor, KEY_STEP_START_LAT,
+					KEY_STEP_START_LNG);
 
 			RouteStep.Builder step = new RouteStep.Builder(startLocation,
 					endLocation);
 
 			// getting step distance
-			columnIndex = cursor.getColumnIndex(KEY_STEP_DIST);
+			int columnIndex = cursor.getColumnIndex(KEY_STEP_DIST);
 			int distance = cursor.getInt(columnIndex);
 			step.distance(distance);
 
@@ -491,9 +1477,9 @@ public final class DbEngine {
 			step.instructions(instructions);
 
 			// getting route duration
-			columnIndex = cursor.getColumnIndex(KEY_STEP_POINTS);
-			String points = cursor.getString(columnIndex);
-			step.points(points);
+			columnIndex = cursor.getColumnIndex(KEY_STEP_POINTS_DATA);
+			byte[] points = cursor.getBlob(columnIndex);
+			step.pointsData(points);
 
 			steps.add(step.build());
 
@@ -505,39 +1491,85 @@ public final class DbEngine {
 	}
 
 	/**
-	 * Gets the location from the store
+	 * Reads the location from the current row of the cursor
 	 * 
-	 * @param aLocationId
-	 *            Location ID in DB
+	 * @param aCursor
+	 *            Cursor
+	 * @param aLatColumn
+	 *            Name of the fixed-point latitude column
+	 * @param aLngColumn
+	 *            Name of the fixed-point longitude column
 	 * @return Location object
 	 */
-	private Location getLocation(int aLocationId) {
+	private static Location readLocation(Cursor aCursor, String aLatColumn,
+			String aLngColumn) {
+		Location location = new Location(LocationManager.GPS_PROVIDER);
 
-		String[] columns = { KEY_ROWID, KEY_LOCATION_LAT, KEY_LOCATION_LNG };
+		// latitude
+		int columnIndex = aCursor.getColumnIndex(aLatColumn);
+		location.setLatitude(fromFixedPoint(aCursor.getLong(columnIndex)));
 
-		Cursor cursor = iDatabase.query(true, LOCATIONS_TABLE, columns,
-				KEY_ROWID + "=" + aLocationId, null, null, null, null, null);
+		// longitude
+		columnIndex = aCursor.getColumnIndex(aLngColumn);
+		location.setLongitude(fromFixedPoint(aCursor.getLong(columnIndex)));
 
-		Location location = new Location(LocationManager.GPS_PROVIDER);
-		if (cursor.getCount() == 0) {
-			return location;
-		}
+		return location;
+	}
 
-		cursor.moveToFirst();
+	/**
+	 * Converts the coordinate to the fixed-point value
+	 * 
+	 * @param aCoordinate
+	 *            Coordinate in degrees
+	 * @return Coordinate in 1E-7 degrees
+	 */
+	private static long toFixedPoint(double aCoordinate) {
+		return Math.round(aCoordinate * COORDINATE_SCALE);
+	}
 
-		// latitude
-		int columnIndex = cursor.getColumnIndex(KEY_LOCATION_LAT);
-		double latitude = cursor.getDouble(columnIndex);
-		location.setLatitude(latitude);
+	/**
+	 * Converts the fixed-point value to the coordinate
+	 * 
+	 * @param aValue
+	 *            Coordinate in 1E-7 degrees
+	 * @return Coordinate in degrees
+	 */
+	private static double fromFixedPoint(long aValue) {
+		return aValue / COORDINATE_SCALE;
+	}
 
-		// longitude
-		columnIndex = cursor.getColumnIndex(KEY_LOCATION_LNG);
-		double longitude = cursor.getDouble(columnIndex);
-		location.setLongitude(longitude);
+	/**
+	 * Collects the bounding box of the points
+	 * 
+	 * @author Dmytro Khmelenko
+	 * 
+	 */
+	private static class BoxSink implements PolylineDecoder.Sink {
+		private double iSouth;
+		private double iWest;
+		private double iNorth;
+		private double iEast;
 
-		cursor.close();
+		/**
+		 * Resets the box to the empty one
+		 */
+		public void reset() {
+			iSouth = Double.POSITIVE_INFINITY;
+			iWest = Double.POSITIVE_INFINITY;
+			iNorth = Double.NEGATIVE_INFINITY;
+			iEast = Double.NEGATIVE_INFINITY;
+		}
 
-		return location;
+		/*
+		 * @see com.utils.PolylineDecoder.Sink#point(double, double)
+		 */
+		@Override
+		public void point(double aLat, double aLng) {
+			iSouth = Math.min(iSouth, aLat);
+			iNorth = Math.max(iNorth, aLat);
+			iWest = Math.min(iWest, aLng);
+			iEast = Math.max(iEast, aLng);
+		}
 	}
 
 }
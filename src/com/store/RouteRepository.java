@@ -0,0 +1,149 @@
+/**
+ * Copyright Khmelenko Lab
+ * Author: Dmytro Khmelenko
+ */
+package com.store;
+
+import java.util.Collections;
+import java.util.List;
+
+import android.content.Context;
+import android.util.LruCache;
+
+/**
+ * Provides the stored routes. Loaded routes are kept in memory and shared by
+ * all screens, so the same route is not loaded from the DB again. Searches are
+ * loaded as route summaries, the steps are loaded only with the single route
+ * 
+ * @author Dmytro Khmelenko
+ * 
+ */
+public final class RouteRepository {
+
+	/** Maximal size of the cached routes: number of routes and their steps */
+	private static final int MAX_ROUTES_SIZE = 4096;
+
+	/** Maximal number of the cached searches with their summaries */
+	private static final int MAX_SEARCHES = 16;
+
+	private static RouteRepository sInstance;
+
+	private final DbEngine iDb;
+
+	/** Routes by their ids */
+	private final LruCache<Integer, Route> iRoutes = new LruCache<Integer, Route>(
+			MAX_ROUTES_SIZE) {
+
+		@Override
+		protected int sizeOf(Integer aKey, Route aValue) {
+			// the route itself and its steps
+			return 1 + aValue.iSteps.size();
+		}
+	};
+
+	/** Route summaries by the search ids */
+	private final LruCache<Long, List<RouteSummary>> iSearches = new LruCache<Long, List<RouteSummary>>(
+			MAX_SEARCHES);
+
+	// statistics
+	private int iHits;
+	private int iMisses;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param aContext
+	 *            Context
+	 */
+	private RouteRepository(Context aContext) {
+		iDb = DbEngine.getInstance(aContext);
+	}
+
+	/**
+	 * Gets the instance of the repository
+	 * 
+	 * @param aContext
+	 *            Context
+	 * @return Instance of the repository
+	 */
+	public static synchronized RouteRepository getInstance(Context aContext) {
+		if (sInstance == null) {
+			sInstance = new RouteRepository(aContext.getApplicationContext());
+		}
+		return sInstance;
+	}
+
+	/**
+	 * Gets the summaries of the routes found by the search
+	 * 
+	 * @param aSearchId
+	 *            Search id
+	 * @return List of route summaries
+	 */
+	public synchronized List<RouteSummary> getSummaries(long aSearchId) {
+		List<RouteSummary> summaries = iSearches.get(aSearchId);
+		if (summaries == null) {
+			// the list is shared by all screens
+			summaries = Collections.unmodifiableList(iDb
+					.getRouteSummaries(aSearchId));
+			iSearches.put(aSearchId, summaries);
+		}
+		return summaries;
+	}
+
+	/**
+	 * Gets the route by id with all its steps
+	 * 
+	 * @param aRouteId
+	 *            Route id
+	 * @return Route or null, if it's not stored
+	 */
+	public synchronized Route getRoute(int aRouteId) {
+		Route route = iRoutes.get(aRouteId);
+		if (route != null) {
+			iHits++;
+			return route;
+		}
+
+		iMisses++;
+		route = iDb.getRoute(aRouteId);
+		if (route != null) {
+			iRoutes.put(aRouteId, route);
+		}
+		return route;
+	}
+
+	/**
+	 * Invalidates the cached routes of the search. Should be called, when the
+	 * search result is replaced or evicted
+	 * 
+	 * @param aSearchId
+	 *            Search id
+	 */
+	public synchronized void invalidate(long aSearchId) {
+		List<RouteSummary> summaries = iSearches.remove(aSearchId);
+		if (summaries != null) {
+			for (RouteSummary summary : summaries) {
+				iRoutes.remove(summary.iId);
+			}
+		}
+	}
+
+	/**
+	 * Gets the number of routes taken from memory
+	 * 
+	 * @return Number of hits
+	 */
+	public synchronized int getHits() {
+		return iHits;
+	}
+
+	/**
+	 * Gets the number of routes loaded from the DB
+	 * 
+	 * @return Number of misses
+	 */
+	public synchronized int getMisses() {
+		return iMisses;
+	}
+}
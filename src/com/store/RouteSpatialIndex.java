@@ -0,0 +1,448 @@
+/**
+ * Copyright Khmelenko Lab
+ * Author: Dmytro Khmelenko
+ */
+package com.store;
+
+import java.util.Arrays;
+
+import android.content.Context;
+import android.util.LruCache;
+
+import com.utils.PackedRTree;
+
+/**
+ * Spatial index of the stored routes and steps. Finds the routes and steps in
+ * the region and the step segment nearest to the point. Only the boxes are
+ * kept in memory: the index is built from the DB on the first query and
+ * rebuilt after invalidation, the step lines are read, when the nearest
+ * segment is measured. The queries should be called in background
+ * 
+ * @author Dmytro Khmelenko
+ * 
+ */
+public final class RouteSpatialIndex {
+
+	/** Meters in one degree of latitude */
+	private static final double METERS_PER_DEGREE = 111320;
+
+	/** Maximal number of the cached step lines */
+	private static final int MAX_CACHED_LINES = 256;
+
+	/**
+	 * Step segment found by the index
+	 * 
+	 * @author Dmytro Khmelenko
+	 * 
+	 */
+	public static final class Segment {
+		private final int iRouteId;
+		private final int iStepId;
+		private final int iIndex;
+		private final double iLatitude;
+		private final double iLongitude;
+		private final double iDistance;
+
+		/**
+		 * Constructor
+		 * 
+		 * @param aRouteId
+		 * @param aStepId
+		 * @param aIndex
+		 * @param aLatitude
+		 * @param aLongitude
+		 * @param aDistance
+		 */
+		private Segment(int aRouteId, int aStepId, int aIndex,
+				double aLatitude, double aLongitude, double aDistance) {
+			iRouteId = aRouteId;
+			iStepId = aStepId;
+			iIndex = aIndex;
+			iLatitude = aLatitude;
+			iLongitude = aLongitude;
+			iDistance = aDistance;
+		}
+
+		public int getRouteId() {
+			return iRouteId;
+		}
+
+		public int getStepId() {
+			return iStepId;
+		}
+
+		/**
+		 * Gets the index of the segment within the step line
+		 * 
+		 * @return Index of the segment start point
+		 */
+		public int getIndex() {
+			return iIndex;
+		}
+
+		/**
+		 * Gets the latitude of the segment point nearest to the query
+		 * 
+		 * @return Latitude in degrees
+		 */
+		public double getLatitude() {
+			return iLatitude;
+		}
+
+		/**
+		 * Gets the longitude of the segment point nearest to the query
+		 * 
+		 * @return Longitude in degrees
+		 */
+		public double getLongitude() {
+			return iLongitude;
+		}
+
+		/**
+		 * Gets the distance from the query to the segment
+		 * 
+		 * @return Distance in meters
+		 */
+		public double getDistance() {
+			return iDistance;
+		}
+	}
+
+	private static RouteSpatialIndex sInstance;
+
+	private final DbEngine iDb;
+
+	// the index: longitude is x, latitude is y. Null, until it's built
+	private PackedRTree iRouteTree;
+	private int[] iRouteIds;
+
+	private PackedRTree iStepTree;
+	private int[] iStepIds;
+	private int[] iStepRoutes;
+
+	/** Lines of the recently measured steps by the step ids */
+	private final LruCache<Integer, double[]> iLines = new LruCache<Integer, double[]>(
+			MAX_CACHED_LINES);
+
+	/**
+	 * Constructor
+	 * 
+	 * @param aContext
+	 *            Context
+	 */
+	private RouteSpatialIndex(Context aContext) {
+		iDb = DbEngine.getInstance(aContext);
+	}
+
+	/**
+	 * Gets the instance of the index
+	 * 
+	 * @param aContext
+	 *            Context
+	 * @return Instance of the index
+	 */
+	public static synchronized RouteSpatialIndex getInstance(Context aContext) {
+		if (sInstance == null) {
+			sInstance = new RouteSpatialIndex(aContext.getApplicationContext());
+		}
+		return sInstance;
+	}
+
+	/**
+	 * Finds the routes, which bounds intersect the region
+	 * 
+	 * @param aSouth
+	 *            South latitude of the region
+	 * @param aWest
+	 *            West longitude of the region
+	 * @param aNorth
+	 *            North latitude of the region
+	 * @param aEast
+	 *            East longitude of the region
+	 * @return Ids of the found routes
+	 */
+	public synchronized int[] findRoutes(double aSouth, double aWest,
+			double aNorth, double aEast) {
+		build();
+		return find(iRouteTree, iRouteIds, aSouth, aWest, aNorth, aEast);
+	}
+
+	/**
+	 * Finds the steps, which boxes intersect the region
+	 * 
+	 * @param aSouth
+	 *            South latitude of the region
+	 * @param aWest
+	 *            West longitude of the region
+	 * @param aNorth
+	 *            North latitude of the region
+	 * @param aEast
+	 *            East longitude of the region
+	 * @return Ids of the found steps
+	 */
+	public synchronized int[] findSteps(double aSouth, double aWest,
+			double aNorth, double aEast) {
+		build();
+		return find(iStepTree, iStepIds, aSouth, aWest, aNorth, aEast);
+	}
+
+	/**
+	 * Finds the step segment nearest to the point. The lines are read only
+	 * for the steps, which boxes are closer than the nearest segment found so
+	 * far
+	 * 
+	 * @param aLatitude
+	 *            Latitude of the point
+	 * @param aLongitude
+	 *            Longitude of the point
+	 * @param aMaxDistance
+	 *            Maximal distance to the segment in meters
+	 * @return Nearest segment or null, if there is no segment within the
+	 *         distance
+	 */
+	public synchronized Segment findNearestSegment(final double aLatitude,
+			final double aLongitude, double aMaxDistance) {
+		build();
+
+		// distances are measured in degrees of latitude, the longitude is
+		// scaled at the point
+		final double scale = Math.cos(Math.toRadians(aLatitude));
+
+		int step = iStepTree.nearest(new PackedRTree.Metric() {
+
+			@Override
+			public double boxDistance(double aMinX, double aMinY,
+					double aMaxX, double aMaxY) {
+				double dx = Math.max(0,
+						Math.max(aMinX - aLongitude, aLongitude - aMaxX))
+						* scale;
+				double dy = Math.max(0,
+						Math.max(aMinY - aLatitude, aLatitude - aMaxY));
+				return Math.sqrt(dx * dx + dy * dy);
+			}
+
+			@Override
+			public double itemDistance(int aIndex) {
+				return nearestSegment(getLine(aIndex), aLatitude, aLongitude,
+						scale, null);
+			}
+		}, aMaxDistance / METERS_PER_DEGREE);
+
+		if (step < 0) {
+			return null;
+		}
+
+		double[] nearest = new double[3];
+		double distance = nearestSegment(getLine(step), aLatitude, aLongitude,
+				scale, nearest);
+		return new Segment(iStepRoutes[step], iStepIds[step],
+				(int) nearest[2], nearest[0], nearest[1], distance
+						* METERS_PER_DEGREE);
+	}
+
+	/**
+	 * Invalidates the index. Should be called, when the stored routes are
+	 * changed
+	 */
+	public synchronized void invalidate() {
+		iRouteTree = null;
+		iRouteIds = null;
+		iStepTree = null;
+		iStepIds = null;
+		iStepRoutes = null;
+		iLines.evictAll();
+	}
+
+	/**
+	 * Builds the index from the DB, if it's not built yet
+	 */
+	private void build() {
+		if (iRouteTree != null) {
+			return;
+		}
+
+		Collector collector = new Collector();
+		iDb.readGeometry(collector);
+
+		iRouteIds = Arrays.copyOf(collector.iRouteIds, collector.iRoutes);
+		iRouteTree = new PackedRTree(collector.iRouteBoxes, collector.iRoutes);
+
+		iStepIds = Arrays.copyOf(collector.iStepIds, collector.iSteps);
+		iStepRoutes = Arrays.copyOf(collector.iStepRoutes, collector.iSteps);
+		iStepTree = new PackedRTree(collector.iStepBoxes, collector.iSteps);
+	}
+
+	/**
+	 * Gets the line of the step. Recently used lines are cached
+	 * 
+	 * @param aStep
+	 *            Step index
+	 * @return Coordinates of the points: lat, lng. Null, if the step is not
+	 *         stored any more
+	 */
+	private double[] getLine(int aStep) {
+		int id = iStepIds[aStep];
+		double[] line = iLines.get(id);
+		if (line == null) {
+			line = iDb.getStepLine(id);
+			if (line != null) {
+				iLines.put(id, line);
+			}
+		}
+		return line;
+	}
+
+	/**
+	 * Finds the items, which boxes intersect the region
+	 * 
+	 * @param aTree
+	 *            Index of the items
+	 * @param aIds
+	 *            Ids of the items
+	 * @param aSouth
+	 *            South latitude of the region
+	 * @param aWest
+	 *            West longitude of the region
+	 * @param aNorth
+	 *            North latitude of the region
+	 * @param aEast
+	 *            East longitude of the region
+	 * @return Ids of the found items
+	 */
+	private static int[] find(PackedRTree aTree, int[] aIds, double aSouth,
+			double aWest, double aNorth, double aEast) {
+		int[] found = new int[aTree.getCount()];
+		int count = aTree.search(aWest, aSouth, aEast, aNorth, found);
+
+		int[] ids = new int[count];
+		for (int i = 0; i < count; i++) {
+			ids[i] = aIds[found[i]];
+		}
+		return ids;
+	}
+
+	/**
+	 * Finds the segment of the line nearest to the point
+	 * 
+	 * @param aLine
+	 *            Coordinates of the line points: lat, lng. Can be null
+	 * @param aLatitude
+	 *            Latitude of the point
+	 * @param aLongitude
+	 *            Longitude of the point
+	 * @param aScale
+	 *            Scale of the longitude
+	 * @param aNearest
+	 *            Array for the nearest point: latitude, longitude and the
+	 *            segment index. Can be null
+	 * @return Distance in degrees of latitude
+	 */
+	private static double nearestSegment(double[] aLine, double aLatitude,
+			double aLongitude, double aScale, double[] aNearest) {
+		if (aLine == null) {
+			return Double.POSITIVE_INFINITY;
+		}
+
+		double best = Double.POSITIVE_INFINITY;
+		int count = aLine.length / 2;
+		for (int i = 0; i + 1 < count; i++) {
+			// relative to the point, in the scaled degrees
+			double y1 = aLine[2 * i] - aLatitude;
+			double x1 = (aLine[2 * i + 1] - aLongitude) * aScale;
+			double dy = aLine[2 * i + 2] - aLatitude - y1;
+			double dx = (aLine[2 * i + 3] - aLongitude) * aScale - x1;
+
+			double length = dx * dx + dy * dy;
+			double t = 0;
+			if (length > 0) {
+				t = Math.max(0, Math.min(1, -(x1 * dx + y1 * dy) / length));
+			}
+
+			double px = x1 + t * dx;
+			double py = y1 + t * dy;
+			double distance = px * px + py * py;
+			if (distance < best) {
+				best = distance;
+				if (aNearest != null) {
+					aNearest[0] = aLatitude + py;
+					aNearest[1] = aLongitude + px / aScale;
+					aNearest[2] = i;
+				}
+			}
+		}
+		return Math.sqrt(best);
+	}
+
+	/**
+	 * Collects the boxes read from the DB
+	 * 
+	 * @author Dmytro Khmelenko
+	 * 
+	 */
+	private static class Collector implements DbEngine.GeometryVisitor {
+		private int iRoutes;
+		private int[] iRouteIds = new int[16];
+		private double[] iRouteBoxes = new double[4 * 16];
+
+		private int iSteps;
+		private int[] iStepIds = new int[64];
+		private int[] iStepRoutes = new int[64];
+		private double[] iStepBoxes = new double[4 * 64];
+
+		/*
+		 * @see com.store.DbEngine.GeometryVisitor#route(int, double, double,
+		 * double, double)
+		 */
+		@Override
+		public void route(int aRouteId, double aSouth, double aWest,
+				double aNorth, double aEast) {
+			if (iRoutes == iRouteIds.length) {
+				iRouteIds = Arrays.copyOf(iRouteIds, 2 * iRoutes);
+				iRouteBoxes = Arrays.copyOf(iRouteBoxes, 8 * iRoutes);
+			}
+
+			iRouteIds[iRoutes] = aRouteId;
+			putBox(iRouteBoxes, iRoutes, aSouth, aWest, aNorth, aEast);
+			iRoutes++;
+		}
+
+		/*
+		 * @see com.store.DbEngine.GeometryVisitor#step(int, int, double,
+		 * double, double, double)
+		 */
+		@Override
+		public void step(int aStepId, int aRouteId, double aSouth,
+				double aWest, double aNorth, double aEast) {
+			if (iSteps == iStepIds.length) {
+				iStepIds = Arrays.copyOf(iStepIds, 2 * iSteps);
+				iStepRoutes = Arrays.copyOf(iStepRoutes, 2 * iSteps);
+				iStepBoxes = Arrays.copyOf(iStepBoxes, 8 * iSteps);
+			}
+
+			iStepIds[iSteps] = aStepId;
+			iStepRoutes[iSteps] = aRouteId;
+			putBox(iStepBoxes, iSteps, aSouth, aWest, aNorth, aEast);
+			iSteps++;
+		}
+
+		/**
+		 * Puts the box in the order of the tree: west, south, east, north
+		 * 
+		 * @param aBoxes
+		 *            Boxes
+		 * @param aIndex
+		 *            Index of the box
+		 * @param aSouth
+		 * @param aWest
+		 * @param aNorth
+		 * @param aEast
+		 */
+		private static void putBox(double[] aBoxes, int aIndex, double aSouth,
+				double aWest, double aNorth, double aEast) {
+			aBoxes[4 * aIndex] = aWest;
+			aBoxes[4 * aIndex + 1] = aSouth;
+			aBoxes[4 * aIndex + 2] = aEast;
+			aBoxes[4 * aIndex + 3] = aNorth;
+		}
+	}
+}
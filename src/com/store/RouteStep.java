@@ -4,8 +4,12 @@
  */
 package com.store;
 
+import java.nio.ByteBuffer;
+
 import android.location.Location;
 
+import com.utils.PolylineCodec;
+
 /**
  * Contains the steps for the route
  * 
@@ -23,7 +27,10 @@ public class RouteStep {
 	private final String iTravelMode;
 	private final String iInstructions;
 
-	private final String iPoints;
+	// points are kept in the form they are received in and converted on
+	// demand
+	private String iPoints;
+	private byte[] iPointsData;
 
 	/**
 	 * Constructor
@@ -35,10 +42,11 @@ public class RouteStep {
 	 * @param aTravelMode
 	 * @param aInstruction
 	 * @param aPoints
+	 * @param aPointsData
 	 */
 	private RouteStep(Location aStart, Location aEnd, int aDistance,
 			int aDuration, String aTravelMode, String aInstruction,
-			String aPoints) {
+			String aPoints, byte[] aPointsData) {
 		iDistance = aDistance;
 		iDuration = aDuration;
 
@@ -49,6 +57,7 @@ public class RouteStep {
 		iInstructions = aInstruction;
 
 		iPoints = aPoints;
+		iPointsData = aPointsData;
 	}
 
 	public Location getStartLocation() {
@@ -76,9 +85,24 @@ public class RouteStep {
 	}
 
 	public String getPoints() {
+		if (iPoints == null && iPointsData != null) {
+			iPoints = PolylineCodec.toText(ByteBuffer.wrap(iPointsData));
+		}
 		return iPoints;
 	}
 
+	/**
+	 * Gets the points in the binary form of {@link PolylineCodec}
+	 * 
+	 * @return Binary points or null, if the step has no points
+	 */
+	public byte[] getPointsData() {
+		if (iPointsData == null && iPoints != null) {
+			iPointsData = PolylineCodec.toBinary(iPoints);
+		}
+		return iPointsData;
+	}
+
 	/**
 	 * Helper builder class
 	 * 
@@ -96,6 +120,7 @@ public class RouteStep {
 		private String iInstructions;
 
 		private String iPoints;
+		private byte[] iPointsData;
 
 		public Builder(Location aStart, Location aEnd) {
 			iStartLocation = aStart;
@@ -127,6 +152,11 @@ public class RouteStep {
 			return this;
 		}
 
+		public Builder pointsData(byte[] aPointsData) {
+			iPointsData = aPointsData;
+			return this;
+		}
+
 		/**
 		 * Builds the {@link RouteStep} instance
 		 * 
@@ -134,7 +164,8 @@ public class RouteStep {
 		 */
 		public RouteStep build() {
 			return new RouteStep(iStartLocation, iEndLocation, iDistance,
-					iDuration, iTravelMode, iInstructions, iPoints);
+					iDuration, iTravelMode, iInstructions, iPoints,
+					iPointsData);
 		}
 	}
 }
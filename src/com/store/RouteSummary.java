@@ -0,0 +1,90 @@
+/**
+ * Copyright Khmelenko Lab
+ * Author: Dmytro Khmelenko
+ */
+package com.store;
+
+import java.nio.ByteBuffer;
+
+import android.location.Location;
+
+import com.utils.PolylineCodec;
+
+/**
+ * Contains route overview data: everything except the route steps. It's
+ * enough for showing the route on the map or in the list
+ * 
+ * @author Dmytro Khmelenko
+ * 
+ */
+public class RouteSummary {
+
+	/** Id of the stored route */
+	public int iId;
+
+	/** Distance in meters */
+	public int iDistance;
+
+	/** Duration is seconds */
+	public int iDuration;
+
+	/** Readable end address */
+	public String iEndAddress;
+
+	/** Points of the end location */
+	public Location iEndLocation;
+
+	/** Readable start address */
+	public String iStartAddress;
+
+	/** Points of the start location */
+	public Location iStartLocation;
+
+	/** Route bounds */
+	public RouteBounds iBounds;
+	
+	/** Encoded polyline. Null, if only the binary polyline is loaded */
+	public String iEncodedPolyline;
+
+	/** Polyline in the binary form of {@link PolylineCodec} */
+	public byte[] iPolylineData;
+
+	/** Route details */
+	public RouteDetails iDetails;
+
+	/** Travel mode the route was requested for */
+	public String iTravelMode;
+
+	/**
+	 * Default constructor
+	 */
+	public RouteSummary() {
+	}
+
+	/**
+	 * Gets the encoded polyline. It's converted from the binary form, if
+	 * needed
+	 * 
+	 * @return Encoded polyline
+	 */
+	public String getEncodedPolyline() {
+		if (iEncodedPolyline == null && iPolylineData != null) {
+			iEncodedPolyline = PolylineCodec.toText(ByteBuffer
+					.wrap(iPolylineData));
+		}
+		return iEncodedPolyline;
+	}
+
+	/**
+	 * Gets the polyline in the binary form. It's converted from the encoded
+	 * polyline, if needed
+	 * 
+	 * @return Binary polyline
+	 */
+	public byte[] getPolylineData() {
+		if (iPolylineData == null && iEncodedPolyline != null) {
+			iPolylineData = PolylineCodec.toBinary(iEncodedPolyline);
+		}
+		return iPolylineData;
+	}
+}
@@ -0,0 +1,255 @@
+/**
+ * Copyright Khmelenko Lab
+ * Author: Dmytro Khmelenko
+ */
+package com.store;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * In-memory prefix tree of the answered autocomplete queries. Each node
+ * represents a normalized query and may keep the cities returned for it. A
+ * query, which extends an already answered one, is answered locally by
+ * filtering the cities of the longest answered prefix
+ * 
+ * @author Dmytro Khmelenko
+ * 
+ */
+public final class SuggestionTrie {
+
+	/** Maximum number of stored result sets. The trie is reset on overflow */
+	public static final int MAX_RESULT_SETS = 512;
+
+	/** Separator of the words: everything except letters and digits */
+	private static final String WORD_SEPARATOR = "[^\\p{L}\\p{N}]+";
+
+	/**
+	 * Node of the trie
+	 */
+	private static final class Node {
+
+		private static final Node[] NO_CHILDREN = new Node[0];
+
+		/** Characters of the children. Kept in parallel with iChildren */
+		private char[] iKeys = new char[0];
+		private Node[] iChildren = NO_CHILDREN;
+
+		/** Cities for the query of the node. Null if it's not answered */
+		private List<City> iCities;
+
+		/**
+		 * Gets the child node
+		 * 
+		 * @param aKey
+		 *            Character of the child
+		 * @return Child node or null
+		 */
+		Node child(char aKey) {
+			for (int i = 0; i < iKeys.length; i++) {
+				if (iKeys[i] == aKey) {
+					return iChildren[i];
+				}
+			}
+			return null;
+		}
+
+		/**
+		 * Gets the child node or creates it, if it's not exist
+		 * 
+		 * @param aKey
+		 *            Character of the child
+		 * @return Child node
+		 */
+		Node obtainChild(char aKey) {
+			Node child = child(aKey);
+			if (child == null) {
+				int size = iKeys.length;
+
+				char[] keys = new char[size + 1];
+				System.arraycopy(iKeys, 0, keys, 0, size);
+				Node[] children = new Node[size + 1];
+				System.arraycopy(iChildren, 0, children, 0, size);
+
+				child = new Node();
+				keys[size] = aKey;
+				children[size] = child;
+
+				iKeys = keys;
+				iChildren = children;
+			}
+			return child;
+		}
+	}
+
+	private Node iRoot = new Node();
+
+	/** Number of stored result sets */
+	private int iResultSets;
+
+	/** Number of queries answered locally */
+	private long iLocalHits;
+
+	/**
+	 * Normalizes the query
+	 * 
+	 * @param aQuery
+	 *            Query
+	 * @return Normalized query
+	 */
+	private static String normalize(String aQuery) {
+		String query = aQuery.replaceAll("\\s+", " ");
+		// leading spaces don't affect the suggestions
+		int start = 0;
+		while (start < query.length() && query.charAt(start) == ' ') {
+			start++;
+		}
+		return query.substring(start).toLowerCase(Locale.getDefault());
+	}
+
+	/**
+	 * Stores the cities returned for the query
+	 * 
+	 * @param aQuery
+	 *            Query
+	 * @param aCities
+	 *            Returned cities
+	 */
+	public synchronized void put(String aQuery, List<City> aCities) {
+		if (iResultSets >= MAX_RESULT_SETS) {
+			clear();
+		}
+
+		String query = normalize(aQuery);
+		Node node = iRoot;
+		for (int i = 0; i < query.length(); i++) {
+			node = node.obtainChild(query.charAt(i));
+		}
+
+		if (node.iCities == null) {
+			iResultSets++;
+		}
+		node.iCities = new ArrayList<City>(aCities);
+	}
+
+	/**
+	 * Finds the cities for the query locally
+	 * 
+	 * @param aQuery
+	 *            Query
+	 * @return List of cities or null, if the query can't be answered locally
+	 */
+	public synchronized List<City> find(String aQuery) {
+		String query = normalize(aQuery);
+
+		// find the longest answered prefix
+		List<City> candidates = null;
+		int candidatesLength = 0;
+		Node node = iRoot;
+		for (int i = 0; i < query.length() && node != null; i++) {
+			if (node.iCities != null) {
+				candidates = node.iCities;
+				candidatesLength = i;
+			}
+			node = node.child(query.charAt(i));
+		}
+		if (node != null && node.iCities != null) {
+			candidates = node.iCities;
+			candidatesLength = query.length();
+		}
+
+		if (candidates == null || candidates.isEmpty()) {
+			return null;
+		}
+
+		List<City> result;
+		if (candidatesLength == query.length()) {
+			// exactly this query was answered before
+			result = Collections.unmodifiableList(candidates);
+		} else {
+			result = filter(candidates, query);
+		}
+
+		if (result.isEmpty()) {
+			// local candidates run out
+			return null;
+		}
+
+		iLocalHits++;
+		return result;
+	}
+
+	/**
+	 * Removes all stored queries
+	 */
+	public synchronized void clear() {
+		iRoot = new Node();
+		iResultSets = 0;
+	}
+
+	/**
+	 * Gets the number of queries answered locally
+	 * 
+	 * @return Number of local hits
+	 */
+	public synchronized long getLocalHits() {
+		return iLocalHits;
+	}
+
+	/**
+	 * Filters the cities matched with the query. Every term of the query
+	 * should be a prefix of some word of the city description
+	 * 
+	 * @param aCities
+	 *            Cities for filtering
+	 * @param aQuery
+	 *            Normalized query
+	 * @return Matched cities
+	 */
+	private static List<City> filter(List<City> aCities, String aQuery) {
+		String[] terms = aQuery.split(WORD_SEPARATOR);
+		List<City> result = new ArrayList<City>();
+
+		for (City city : aCities) {
+			String[] words = city.getDescription()
+					.toLowerCase(Locale.getDefault()).split(WORD_SEPARATOR);
+			if (matches(words, terms)) {
+				result.add(city);
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Checks whether each term is a prefix of some word
+	 * 
+	 * @param aWords
+	 *            Words of the description
+	 * @param aTerms
+	 *            Terms of the query
+	 * @return True, if all terms are matched
+	 */
+	private static boolean matches(String[] aWords, String[] aTerms) {
+		for (String term : aTerms) {
+			if (term.isEmpty()) {
+				continue;
+			}
+
+			boolean found = false;
+			for (String word : aWords) {
+				if (word.startsWith(term)) {
+					found = true;
+					break;
+				}
+			}
+
+			if (!found) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,30 @@
+/**
+ * Copyright Khmelenko Lab
+ * Author: Dmytro Khmelenko
+ */
+package com.store;
+
+/**
+ * Contains travel modes supported by the directions requests
+ * 
+ * @author Dmytro Khmelenko
+ * 
+ */
+public final class TravelMode {
+
+	public static final String DRIVING = "driving";
+	public static final String WALKING = "walking";
+	public static final String BICYCLING = "bicycling";
+
+	/** Pseudo mode: all travel modes are requested at once */
+	public static final String ALL = "all";
+
+	/** Modes requested for {@link #ALL} */
+	public static final String[] ALL_MODES = { DRIVING, WALKING, BICYCLING };
+
+	/**
+	 * Denied constructor
+	 */
+	private TravelMode() {
+	}
+}
@@ -14,6 +14,8 @@ import android.location.Location;
 import android.net.Uri;
 import android.os.AsyncTask;
 import android.os.Bundle;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
@@ -28,13 +30,13 @@ import android.widget.Toast;
 import com.khmelenko.lab.simpleroute.R;
 import com.location.LocationEngine;
 import com.location.LocationObserver;
-import com.network.NetworkEngine;
-import com.network.PacketParser;
+import com.network.AutocompleteEngine;
+import com.network.AutocompleteScheduler;
+import com.network.DirectionsCache;
 import com.network.ResponseStatus;
-import com.store.AppSettings;
+import com.network.SearchResult;
 import com.store.City;
-import com.store.DbEngine;
-import com.store.Route;
+import com.store.TravelMode;
 
 /**
  * Application main screen
@@ -53,13 +55,15 @@ public class MainScreen extends Activity implements LocationObserver {
 	private SearchDirectionAsyncTask iSearchTask;
 
 	private ProgressDialog iProgressDialog;
-	
-	private static final String MODE_DRIVING = "driving";
-	private static final String MODE_WALKING = "walking";
-	private static final String MODE_BICYCLING = "bicycling";
 
 	/** Location retrieval */
 	private LocationEngine iLocationEngine;
+
+	/** Provides autocomplete suggestions */
+	private AutocompleteEngine iAutocomplete;
+
+	/** Provides the directions */
+	private DirectionsCache iDirections;
 	
 	/*
 	 * @see android.app.Activity#onCreate(android.os.Bundle)
@@ -69,15 +73,14 @@ public class MainScreen extends Activity implements LocationObserver {
 		super.onCreate(savedInstanceState);
 		setContentView(R.layout.main_screen);
 
+		iAutocomplete = new AutocompleteEngine(getApplicationContext());
+		iDirections = new DirectionsCache(getApplicationContext());
+
 		// init departure editor
-		iDepartureEditor = (AutoCompleteTextView) findViewById(R.id.main_departure_edit);
-		iDepartureEditor.setAdapter(new CustomCompleteAdapter(this,
-				android.R.layout.simple_dropdown_item_1line));
+		iDepartureEditor = initAddressEditor(R.id.main_departure_edit);
 
 		// init arrival editor
-		iArrivalEditor = (AutoCompleteTextView) findViewById(R.id.main_arrival_edit);
-		iArrivalEditor.setAdapter(new CustomCompleteAdapter(this,
-				android.R.layout.simple_dropdown_item_1line));
+		iArrivalEditor = initAddressEditor(R.id.main_arrival_edit);
 		
 		// init travel mode selector
 		iTravelMode = (RadioGroup) findViewById(R.id.main_travel_mode);
@@ -100,6 +103,45 @@ public class MainScreen extends Activity implements LocationObserver {
 		iLocationEngine = new LocationEngine(getApplicationContext(), this);
 	}
 	
+	/**
+	 * Initializes the address editor with autocomplete
+	 * 
+	 * @param aEditorId
+	 *            Editor ID
+	 * @return Address editor
+	 */
+	private AutoCompleteTextView initAddressEditor(int aEditorId) {
+		AutoCompleteTextView editor = (AutoCompleteTextView) findViewById(aEditorId);
+
+		final AutocompleteScheduler scheduler = new AutocompleteScheduler(
+				iAutocomplete, AutocompleteScheduler.DEFAULT_DEBOUNCE);
+		editor.setAdapter(new CustomCompleteAdapter(this,
+				android.R.layout.simple_dropdown_item_1line, scheduler));
+
+		// newer input supersedes the scheduled requests
+		editor.addTextChangedListener(new TextWatcher() {
+
+			@Override
+			public void onTextChanged(CharSequence aText, int aStart,
+					int aBefore, int aCount) {
+				// do nothing
+			}
+
+			@Override
+			public void beforeTextChanged(CharSequence aText, int aStart,
+					int aCount, int aAfter) {
+				// do nothing
+			}
+
+			@Override
+			public void afterTextChanged(Editable aText) {
+				scheduler.inputChanged(aText.toString());
+			}
+		});
+
+		return editor;
+	}
+
 	/**
 	 * Initializes button Search
 	 */
@@ -241,16 +283,19 @@ public class MainScreen extends Activity implements LocationObserver {
 	 * @return String travel mode
 	 */
 	private String travelModeToString(int aTravelModeId) {
-		String mode = MODE_DRIVING;
+		String mode = TravelMode.DRIVING;
 		switch (aTravelModeId) {
 		case R.id.main_mode_driving:
-			mode = MODE_DRIVING;
+			mode = TravelMode.DRIVING;
 			break;
 		case R.id.main_mode_walking:
-			mode = MODE_WALKING;
+			mode = TravelMode.WALKING;
 			break;
 		case R.id.main_mode_bicycling:
-			mode = MODE_BICYCLING;
+			mode = TravelMode.BICYCLING;
+			break;
+		case R.id.main_mode_all:
+			mode = TravelMode.ALL;
 			break;
 		}
 		return mode;
@@ -268,15 +313,22 @@ public class MainScreen extends Activity implements LocationObserver {
 		/** List of results */
 		private List<String> iResultList;
 
+		/** Schedules the requests */
+		private final AutocompleteScheduler iScheduler;
+
 		/**
 		 * Constructor
 		 * 
 		 * @param aContext
 		 *            Context
 		 * @param aTextViewResourceId
+		 * @param aScheduler
+		 *            Scheduler of the requests
 		 */
-		public CustomCompleteAdapter(Context aContext, int aTextViewResourceId) {
+		public CustomCompleteAdapter(Context aContext, int aTextViewResourceId,
+				AutocompleteScheduler aScheduler) {
 			super(aContext, aTextViewResourceId);
+			iScheduler = aScheduler;
 		}
 
 		@Override
@@ -296,35 +348,29 @@ public class MainScreen extends Activity implements LocationObserver {
 				protected FilterResults performFiltering(
 						CharSequence aConstraint) {
 					FilterResults filterResults = new FilterResults();
-					boolean networkAvailable = NetworkEngine
-							.isNetworkAvailable(getApplicationContext());
-					if (aConstraint != null && networkAvailable) {
-
-						// retrieve API key
-						String apiKey = AppSettings
-								.getApiKey(getApplicationContext());
-
-						// make request and receive the response
-						NetworkEngine network = new NetworkEngine();
-						String response = network.requestCities(
-								aConstraint.toString(), apiKey);
-
-						// response status is ignored. Empty list will be,
-						// if an error occurred
-
-						// parse the response
-						List<City> cities = PacketParser.parseCities(response);
-
-						// create the list of the names of the positions
-						List<String> list = new ArrayList<String>();
-						for (City city : cities) {
-							list.add(city.getDescription());
+					if (aConstraint != null) {
+
+						// local, cached or requested from the network
+						List<City> cities = iScheduler.request(aConstraint
+								.toString());
+
+						// null means the input was superseded,
+						// current results are kept then
+						if (cities != null) {
+							// create the list of the names of the positions
+							List<String> list = new ArrayList<String>();
+							for (City city : cities) {
+								list.add(city.getDescription());
+							}
+
+							iResultList = list;
 						}
 
-						iResultList = list;
 						// Assign the data to the FilterResults
-						filterResults.values = iResultList;
-						filterResults.count = iResultList.size();
+						if (iResultList != null) {
+							filterResults.values = iResultList;
+							filterResults.count = iResultList.size();
+						}
 					}
 
 					return filterResults;
@@ -352,7 +398,7 @@ public class MainScreen extends Activity implements LocationObserver {
 	 * 
 	 */
 	private class SearchDirectionAsyncTask extends
-			AsyncTask<URL, Void, ResponseStatus> {
+			AsyncTask<URL, Void, SearchResult> {
 
 		/** Origin place */
 		private String iOrigin;
@@ -368,6 +414,8 @@ public class MainScreen extends Activity implements LocationObserver {
 		 *            Origin place
 		 * @param aDest
 		 *            Destination place
+		 * @param aTravelMode
+		 *            Travel mode
 		 */
 		public SearchDirectionAsyncTask(String aOrigin, String aDest,
 				String aTravelMode) {
@@ -380,35 +428,26 @@ public class MainScreen extends Activity implements LocationObserver {
 		 * @see android.os.AsyncTask#doInBackground(Params[])
 		 */
 		@Override
-		protected ResponseStatus doInBackground(URL... aUrl) {
-			ResponseStatus status = null;
-			if (NetworkEngine.isNetworkAvailable(getApplicationContext())) {
-				NetworkEngine network = new NetworkEngine();
-				String result = network.requestDirections(iOrigin, iDest,
-						iTravelMode);
-
-				// parse the response
-				if (result != null) {
-					status = handleResponse(result);
-				}
-			}
-			return status;
+		protected SearchResult doInBackground(URL... aUrl) {
+			// stored result is used, if exists. It works offline as well
+			return iDirections.findDirections(iOrigin, iDest, iTravelMode);
 		}
 
 		/*
 		 * @see android.os.AsyncTask#onPostExecute(java.lang.Object)
 		 */
 		@Override
-		protected void onPostExecute(ResponseStatus aResponse) {
-			super.onPostExecute(aResponse);
-
-			// if response is empty, connection error occurred
-			if (aResponse == null) {
+		protected void onPostExecute(SearchResult aResult) {
+			super.onPostExecute(aResult);
+
+			ResponseStatus status = aResult.getStatus();
+			if (aResult.isFound()) {
+				showRoutesOnMap(aResult.getSearchId());
+			} else if (status == null) {
+				// if response is empty, connection error occurred
 				notifyConnectionFailed();
-			} else if (!aResponse.isSuccess()) {
-				notifyRequestFailed(aResponse);
 			} else {
-				showRoutesOnMap();
+				notifyRequestFailed(status);
 			}
 
 			// hide progress dialog
@@ -425,32 +464,6 @@ public class MainScreen extends Activity implements LocationObserver {
 		Toast.makeText(this, notification, Toast.LENGTH_SHORT).show();
 	}
 
-	/**
-	 * Handles server response
-	 * 
-	 * @param aResponse
-	 *            Response
-	 * @return Response status
-	 */
-	private ResponseStatus handleResponse(String aResponse) {
-		ResponseStatus status = PacketParser.parseStatus(aResponse);
-		if (status.isSuccess()) {
-			List<Route> routes = PacketParser.parseRoutes(aResponse);
-			DbEngine db = new DbEngine(MainScreen.this);
-
-			// clear previous routes
-			db.deleteAll();
-
-			// Store the routes to the DB
-			for (Route route : routes) {
-				db.insertRoute(route);
-			}
-			db.close();
-		}
-
-		return status;
-	}
-
 	/**
 	 * Notifies about failed request
 	 * 
@@ -464,9 +477,14 @@ public class MainScreen extends Activity implements LocationObserver {
 
 	/**
 	 * Shows the routes on the map
+	 * 
+	 * @param aSearchId
+	 *            Id of the stored search
 	 */
-	private void showRoutesOnMap() {
-		startActivity(new Intent(MainScreen.this, MapScreen.class));
+	private void showRoutesOnMap(long aSearchId) {
+		Intent intent = new Intent(MainScreen.this, MapScreen.class);
+		intent.putExtra(MapScreen.EXTRA_SEARCH_ID, aSearchId);
+		startActivity(intent);
 	}
 
 	/*
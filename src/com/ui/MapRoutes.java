@@ -0,0 +1,400 @@
+/**
+ * Copyright Khmelenko Lab
+ * Author: Dmytro Khmelenko
+ */
+package com.ui;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import android.content.Context;
+import android.graphics.Color;
+import android.location.Location;
+import android.os.SystemClock;
+
+import com.google.android.gms.maps.model.BitmapDescriptorFactory;
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+import com.google.android.gms.maps.model.MarkerOptions;
+import com.google.android.gms.maps.model.PolylineOptions;
+import com.store.DbEngine;
+import com.store.RouteBounds;
+import com.store.RouteRepository;
+import com.store.RouteSummary;
+import com.store.TravelMode;
+import com.utils.PolylineCodec;
+import com.utils.PolylineDecoder;
+import com.utils.PolylineSimplifier;
+
+/**
+ * Routes of the search prepared for showing on the map. Loading, decoding,
+ * simplification and the bounds are done in background, so the UI thread only
+ * attaches the ready options to the map
+ * 
+ * @author Dmytro Khmelenko
+ * 
+ */
+final class MapRoutes {
+
+	/** Width of the route line */
+	private static final float LINE_WIDTH = 4.0f;
+
+	/**
+	 * Route prepared for showing
+	 * 
+	 * @author Dmytro Khmelenko
+	 * 
+	 */
+	static final class Item {
+
+		private final RouteSummary iSummary;
+
+		/** Simplified line. Null, if the route has no polyline */
+		private final PolylineSimplifier iSimplifier;
+
+		/** Line for the prepared zoom level. Null, if there is no line */
+		private final PolylineOptions iLine;
+
+		private final MarkerOptions iStartMarker;
+		private final MarkerOptions iEndMarker;
+
+		/**
+		 * Constructor
+		 * 
+		 * @param aSummary
+		 * @param aSimplifier
+		 * @param aLine
+		 * @param aStartMarker
+		 * @param aEndMarker
+		 */
+		private Item(RouteSummary aSummary, PolylineSimplifier aSimplifier,
+				PolylineOptions aLine, MarkerOptions aStartMarker,
+				MarkerOptions aEndMarker) {
+			iSummary = aSummary;
+			iSimplifier = aSimplifier;
+			iLine = aLine;
+			iStartMarker = aStartMarker;
+			iEndMarker = aEndMarker;
+		}
+
+		public RouteSummary getSummary() {
+			return iSummary;
+		}
+
+		public PolylineSimplifier getSimplifier() {
+			return iSimplifier;
+		}
+
+		public PolylineOptions getLine() {
+			return iLine;
+		}
+
+		public MarkerOptions getStartMarker() {
+			return iStartMarker;
+		}
+
+		public MarkerOptions getEndMarker() {
+			return iEndMarker;
+		}
+	}
+
+	private final List<Item> iItems;
+
+	/** Travel modes of the routes */
+	private final List<String> iTravelModes;
+
+	/** Bounds of the routes by the travel modes, including all modes */
+	private final Map<String, LatLngBounds> iBounds;
+
+	/** Zoom level the lines are prepared for */
+	private final int iZoomLevel;
+
+	/** Times of the preparation stages in milliseconds */
+	private final long iLoadTime;
+	private final long iSimplifyTime;
+	private final long iBuildTime;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param aItems
+	 * @param aTravelModes
+	 * @param aBounds
+	 * @param aZoomLevel
+	 * @param aLoadTime
+	 * @param aSimplifyTime
+	 * @param aBuildTime
+	 */
+	private MapRoutes(List<Item> aItems, List<String> aTravelModes,
+			Map<String, LatLngBounds> aBounds, int aZoomLevel, long aLoadTime,
+			long aSimplifyTime, long aBuildTime) {
+		iItems = aItems;
+		iTravelModes = aTravelModes;
+		iBounds = aBounds;
+		iZoomLevel = aZoomLevel;
+		iLoadTime = aLoadTime;
+		iSimplifyTime = aSimplifyTime;
+		iBuildTime = aBuildTime;
+	}
+
+	public List<Item> getItems() {
+		return iItems;
+	}
+
+	public List<String> getTravelModes() {
+		return iTravelModes;
+	}
+
+	/**
+	 * Gets the bounds of the routes of the travel mode
+	 * 
+	 * @param aTravelMode
+	 *            Travel mode or {@link TravelMode#ALL}
+	 * @return Bounds or null, if there are no such routes
+	 */
+	public LatLngBounds getBounds(String aTravelMode) {
+		return iBounds.get(aTravelMode);
+	}
+
+	public int getZoomLevel() {
+		return iZoomLevel;
+	}
+
+	public long getLoadTime() {
+		return iLoadTime;
+	}
+
+	public long getSimplifyTime() {
+		return iSimplifyTime;
+	}
+
+	public long getBuildTime() {
+		return iBuildTime;
+	}
+
+	/**
+	 * Loads the combined bounds of the search. Only the search row is read,
+	 * so the camera can be positioned before the routes are prepared. Should
+	 * be called in background
+	 * 
+	 * @param aContext
+	 *            Context
+	 * @param aSearchId
+	 *            Search id
+	 * @return Bounds or null, if the search has no routes
+	 */
+	static LatLngBounds loadSearchBounds(Context aContext, long aSearchId) {
+		RouteBounds bounds = DbEngine.getInstance(aContext).getSearchBounds(
+				aSearchId);
+		if (bounds == null) {
+			return null;
+		}
+
+		Location northEast = bounds.getNorthEast();
+		Location southWest = bounds.getSouthWest();
+		return new LatLngBounds(new LatLng(southWest.getLatitude(),
+				southWest.getLongitude()), new LatLng(northEast.getLatitude(),
+				northEast.getLongitude()));
+	}
+
+	/**
+	 * Prepares the routes of the search. Should be called in background
+	 * 
+	 * @param aContext
+	 *            Context
+	 * @param aSearchId
+	 *            Search id
+	 * @param aZoomLevel
+	 *            Zoom level the lines are prepared for
+	 * @param aSearchBounds
+	 *            Stored bounds of the search. If null, they are computed
+	 *            from the routes
+	 * @return Prepared routes
+	 */
+	static MapRoutes prepare(Context aContext, long aSearchId, int aZoomLevel,
+			LatLngBounds aSearchBounds) {
+		long start = SystemClock.elapsedRealtime();
+
+		// load
+		List<RouteSummary> routes = RouteRepository.getInstance(aContext)
+				.getSummaries(aSearchId);
+		long loaded = SystemClock.elapsedRealtime();
+
+		// decode and simplify
+		List<PolylineSimplifier> simplifiers = new ArrayList<PolylineSimplifier>(
+				routes.size());
+		for (RouteSummary route : routes) {
+			simplifiers.add(createSimplifier(route));
+		}
+		long simplified = SystemClock.elapsedRealtime();
+
+		// build the options and the bounds
+		List<Item> items = new ArrayList<Item>(routes.size());
+		List<String> modes = new ArrayList<String>();
+		Map<String, LatLngBounds.Builder> builders = new HashMap<String, LatLngBounds.Builder>();
+		for (int i = 0; i < routes.size(); i++) {
+			RouteSummary route = routes.get(i);
+			PolylineSimplifier simplifier = simplifiers.get(i);
+
+			PolylineOptions line = null;
+			if (simplifier != null) {
+				line = new PolylineOptions();
+				line.addAll(getPoints(simplifier, aZoomLevel));
+				line.width(LINE_WIDTH);
+				line.color(getRouteColor(route.iTravelMode));
+			}
+
+			items.add(new Item(route, simplifier, line,
+					createStartMarker(route), createEndMarker(route)));
+
+			if (aSearchBounds == null) {
+				includeBounds(builders, TravelMode.ALL, route.iBounds);
+			}
+			if (route.iTravelMode != null) {
+				includeBounds(builders, route.iTravelMode, route.iBounds);
+				if (!modes.contains(route.iTravelMode)) {
+					modes.add(route.iTravelMode);
+				}
+			}
+		}
+
+		Map<String, LatLngBounds> bounds = new HashMap<String, LatLngBounds>();
+		if (aSearchBounds != null) {
+			bounds.put(TravelMode.ALL, aSearchBounds);
+		}
+		for (Map.Entry<String, LatLngBounds.Builder> entry : builders
+				.entrySet()) {
+			bounds.put(entry.getKey(), entry.getValue().build());
+		}
+		long end = SystemClock.elapsedRealtime();
+
+		return new MapRoutes(items, modes, bounds, aZoomLevel, loaded - start,
+				simplified - loaded, end - simplified);
+	}
+
+	/**
+	 * Gets the points of the simplified line for the zoom level
+	 * 
+	 * @param aSimplifier
+	 *            Simplified line
+	 * @param aZoomLevel
+	 *            Zoom level
+	 * @return List of points
+	 */
+	static List<LatLng> getPoints(PolylineSimplifier aSimplifier,
+			int aZoomLevel) {
+		final List<LatLng> points = new ArrayList<LatLng>(
+				aSimplifier.getCount(aZoomLevel));
+		aSimplifier.getPoints(aZoomLevel, new PolylineDecoder.Sink() {
+
+			@Override
+			public void point(double aLat, double aLng) {
+				points.add(new LatLng(aLat, aLng));
+			}
+		});
+		return points;
+	}
+
+	/**
+	 * Decodes the route line and simplifies it
+	 * 
+	 * @param aRoute
+	 *            Route
+	 * @return Simplified line or null, if the route has no polyline
+	 */
+	private static PolylineSimplifier createSimplifier(RouteSummary aRoute) {
+		byte[] polyline = aRoute.getPolylineData();
+		if (polyline == null) {
+			return null;
+		}
+
+		// decoded straight from the stored bytes
+		ByteBuffer data = ByteBuffer.wrap(polyline);
+		double[] coordinates = new double[2 * PolylineCodec.countPoints(data)];
+		int count = PolylineCodec.decode(data, coordinates);
+		return new PolylineSimplifier(coordinates, count);
+	}
+
+	/**
+	 * Creates the marker of the route start
+	 * 
+	 * @param aRoute
+	 *            Route
+	 * @return Marker options
+	 */
+	private static MarkerOptions createStartMarker(RouteSummary aRoute) {
+		Location start = aRoute.iStartLocation;
+
+		MarkerOptions marker = new MarkerOptions();
+		marker.position(new LatLng(start.getLatitude(), start.getLongitude()));
+		marker.title(aRoute.iStartAddress);
+		return marker;
+	}
+
+	/**
+	 * Creates the marker of the route end
+	 * 
+	 * @param aRoute
+	 *            Route
+	 * @return Marker options
+	 */
+	private static MarkerOptions createEndMarker(RouteSummary aRoute) {
+		Location end = aRoute.iEndLocation;
+
+		MarkerOptions marker = new MarkerOptions();
+		marker.position(new LatLng(end.getLatitude(), end.getLongitude()));
+		marker.title(aRoute.iEndAddress);
+
+		// end marker has another icon
+		marker.icon(BitmapDescriptorFactory
+				.defaultMarker(BitmapDescriptorFactory.HUE_BLUE));
+		return marker;
+	}
+
+	/**
+	 * Includes the route bounds into the bounds of the travel mode
+	 * 
+	 * @param aBuilders
+	 *            Bounds builders by the travel modes
+	 * @param aTravelMode
+	 *            Travel mode
+	 * @param aBounds
+	 *            Route bounds
+	 */
+	private static void includeBounds(
+			Map<String, LatLngBounds.Builder> aBuilders, String aTravelMode,
+			RouteBounds aBounds) {
+		LatLngBounds.Builder builder = aBuilders.get(aTravelMode);
+		if (builder == null) {
+			builder = new LatLngBounds.Builder();
+			aBuilders.put(aTravelMode, builder);
+		}
+
+		Location northEast = aBounds.getNorthEast();
+		Location southWest = aBounds.getSouthWest();
+		builder.include(new LatLng(northEast.getLatitude(), northEast
+				.getLongitude()));
+		builder.include(new LatLng(southWest.getLatitude(), southWest
+				.getLongitude()));
+	}
+
+	/**
+	 * Gets the color of the route line
+	 * 
+	 * @param aTravelMode
+	 *            Travel mode of the route
+	 * @return Color of the line
+	 */
+	static int getRouteColor(String aTravelMode) {
+		int color = Color.RED;
+		if (TravelMode.WALKING.equals(aTravelMode)) {
+			color = Color.BLUE;
+		} else if (TravelMode.BICYCLING.equals(aTravelMode)) {
+			color = Color.GREEN;
+		}
+		return color;
+	}
+}
@@ -9,9 +9,10 @@ import java.util.List;
 
 import android.app.Activity;
 import android.content.Intent;
-import android.graphics.Color;
-import android.location.Location;
+import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.SparseArray;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.widget.TextView;
@@ -21,18 +22,15 @@ import com.google.android.gms.maps.CameraUpdateFactory;
 import com.google.android.gms.maps.GoogleMap;
 import com.google.android.gms.maps.MapFragment;
 import com.google.android.gms.maps.UiSettings;
-import com.google.android.gms.maps.model.BitmapDescriptorFactory;
-import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.CameraPosition;
 import com.google.android.gms.maps.model.LatLngBounds;
-import com.google.android.gms.maps.model.MarkerOptions;
+import com.google.android.gms.maps.model.Marker;
 import com.google.android.gms.maps.model.Polyline;
-import com.google.android.gms.maps.model.PolylineOptions;
 import com.khmelenko.lab.simpleroute.R;
-import com.network.PacketParser;
 import com.store.DbEngine;
-import com.store.Route;
-import com.store.RouteBounds;
 import com.store.RouteDetails;
+import com.store.TravelMode;
+import com.utils.PolylineSimplifier;
 
 /**
  * Used for showing maps
@@ -42,8 +40,114 @@ import com.store.RouteDetails;
  */
 public class MapScreen extends Activity {
 
+	/** Intent extra: id of the stored search to show */
+	public static final String EXTRA_SEARCH_ID = "search_id";
+
+	/** Offset of the routes from the edges of the map in pixels */
+	private static final int BOUNDS_PADDING = 35;
+
+	/** Margin around the visible region, in which the steps are shown */
+	private static final double STEPS_MARGIN = 0.25;
+
+	/**
+	 * Maximal number of the shown steps. If more steps are visible, only the
+	 * largest ones are shown, the rest are too small to be distinguished
+	 */
+	private static final int MAX_SHOWN_STEPS = 100;
+
 	private GoogleMap iMap;
 
+	/** Id of the shown search */
+	private long iSearchId;
+
+	/** Routes of all requested travel modes. Null, until they are prepared */
+	private MapRoutes iRoutes;
+
+	/** Prepares the routes in background */
+	private PrepareRoutesAsyncTask iPrepareTask;
+
+	/** Lines shown on the map */
+	private final List<RouteLine> iLines = new ArrayList<RouteLine>();
+
+	/** Travel mode of the shown routes */
+	private String iShownTravelMode = TravelMode.ALL;
+
+	/** True, if the steps of the routes are shown */
+	private boolean iShowSteps;
+
+	/** Steps of the routes. Null, until they are prepared */
+	private MapSteps iSteps;
+
+	/** Prepares the steps in background */
+	private PrepareStepsAsyncTask iPrepareStepsTask;
+
+	/** Steps attached to the map by the step indices */
+	private final SparseArray<StepOverlay> iStepOverlays = new SparseArray<StepOverlay>();
+
+	/** Steps found near the visible region */
+	private int[] iFoundSteps;
+
+	/** Marks the found steps */
+	private boolean[] iFoundFlags;
+
+	/** Zoom level the lines are shown for */
+	private int iZoomLevel;
+
+	/** True, if the map is loaded and the camera can be moved */
+	private boolean iMapLoaded;
+
+	/** Camera update waiting for the map to be loaded */
+	private CameraUpdate iPendingUpdate;
+
+	/** True, if the camera is positioned by the stored search bounds */
+	private boolean iCameraPositioned;
+
+	/** Time of the screen creation */
+	private long iCreateTime;
+
+	/** Timings of showing the routes. Null, until they are shown */
+	private MapTimings iTimings;
+
+	/**
+	 * Route line shown on the map
+	 * 
+	 * @author Dmytro Khmelenko
+	 * 
+	 */
+	private static class RouteLine {
+		private final Polyline iPolyline;
+		private final PolylineSimplifier iSimplifier;
+
+		public RouteLine(Polyline aPolyline, PolylineSimplifier aSimplifier) {
+			iPolyline = aPolyline;
+			iSimplifier = aSimplifier;
+		}
+	}
+
+	/**
+	 * Step attached to the map
+	 * 
+	 * @author Dmytro Khmelenko
+	 * 
+	 */
+	private static class StepOverlay {
+		private final Polyline iPolyline;
+		private final Marker iMarker;
+
+		public StepOverlay(Polyline aPolyline, Marker aMarker) {
+			iPolyline = aPolyline;
+			iMarker = aMarker;
+		}
+
+		/**
+		 * Removes the step from the map
+		 */
+		public void remove() {
+			iPolyline.remove();
+			iMarker.remove();
+		}
+	}
+
 	/** Shows route copyrights */
 	private TextView iCopyrights;
 	/** Shows route warnings */
@@ -56,40 +160,255 @@ public class MapScreen extends Activity {
 	protected void onCreate(Bundle savedInstanceState) {
 		super.onCreate(savedInstanceState);
 		setContentView(R.layout.map_screen);
+		iCreateTime = SystemClock.elapsedRealtime();
 
 		iCopyrights = (TextView) findViewById(R.id.route_copyrights);
 		iWarnings = (TextView) findViewById(R.id.route_warnings);
 
 		initMapControl();
 
-		// parse the route from the DB
-		DbEngine db = new DbEngine(MapScreen.this);
-		final List<Route> routes = db.getAllRoutes();
-		db.close();
-
-		List<RouteBounds> bounds = new ArrayList<RouteBounds>();
-		// show the routes on the map
-		for (Route route : routes) {
-			drawRoute(route);
-			showRouteMarkers(route);
-			showRouteDetails(route.iDetails);
-			bounds.add(route.iBounds);
-		}
+		// the lines are simplified for the current zoom
+		iMap.setOnCameraChangeListener(new GoogleMap.OnCameraChangeListener() {
 
-		// prepare maps bounds for zoom
-		final CameraUpdate update = prepareMapBounds(bounds);
+			@Override
+			public void onCameraChange(CameraPosition aPosition) {
+				updateZoomLevel(aPosition.zoom);
+				updateSteps();
+			}
+		});
 
 		// zoom the map when it's already loaded
 		iMap.setOnMapLoadedCallback(new GoogleMap.OnMapLoadedCallback() {
 
 			@Override
 			public void onMapLoaded() {
-				iMap.animateCamera(update);
+				iMapLoaded = true;
+				if (iPendingUpdate != null) {
+					iMap.animateCamera(iPendingUpdate);
+					iPendingUpdate = null;
+				}
 			}
 		});
 
+		// the routes are prepared in background. All modes are loaded at
+		// once, so switching between them doesn't need any request
+		iSearchId = getIntent().getLongExtra(EXTRA_SEARCH_ID,
+				DbEngine.NO_SEARCH);
+		iZoomLevel = PolylineSimplifier
+				.toZoomLevel(iMap.getCameraPosition().zoom);
+		iPrepareTask = new PrepareRoutesAsyncTask(iSearchId, iZoomLevel);
+		iPrepareTask.execute();
 	}
-	
+
+	/*
+	 * @see android.app.Activity#onDestroy()
+	 */
+	@Override
+	protected void onDestroy() {
+		if (iPrepareTask != null) {
+			iPrepareTask.cancel(true);
+		}
+		if (iPrepareStepsTask != null) {
+			iPrepareStepsTask.cancel(true);
+		}
+		super.onDestroy();
+	}
+
+	/**
+	 * Called, when the routes are prepared
+	 * 
+	 * @param aRoutes
+	 *            Prepared routes
+	 */
+	private void routesPrepared(MapRoutes aRoutes) {
+		long start = SystemClock.elapsedRealtime();
+		iRoutes = aRoutes;
+		CameraUpdate update = showRoutes(TravelMode.ALL);
+		if (!iCameraPositioned) {
+			moveCamera(update);
+		}
+		invalidateOptionsMenu();
+
+		long end = SystemClock.elapsedRealtime();
+		iTimings = new MapTimings(aRoutes.getLoadTime(),
+				aRoutes.getSimplifyTime(), aRoutes.getBuildTime(), end - start,
+				end - iCreateTime);
+	}
+
+	/**
+	 * Gets the timings of showing the routes. Used for measuring the time to
+	 * the first frame with the routes
+	 * 
+	 * @return Timings or null, if the routes are not shown yet
+	 */
+	public MapTimings getTimings() {
+		return iTimings;
+	}
+
+	/**
+	 * Shows the routes of the travel mode on the map. Lines and markers are
+	 * already prepared, they are only attached to the map
+	 * 
+	 * @param aTravelMode
+	 *            Travel mode. {@link TravelMode#ALL} shows the routes of all
+	 *            modes side by side
+	 * @return Camera update for zooming to the shown routes or null, if
+	 *         nothing is shown
+	 */
+	private CameraUpdate showRoutes(String aTravelMode) {
+		iMap.clear();
+		iLines.clear();
+		iStepOverlays.clear();
+		iShownTravelMode = aTravelMode;
+		iZoomLevel = PolylineSimplifier
+				.toZoomLevel(iMap.getCameraPosition().zoom);
+
+		// show the routes on the map
+		for (MapRoutes.Item route : iRoutes.getItems()) {
+			if (!TravelMode.ALL.equals(aTravelMode)
+					&& !aTravelMode.equals(route.getSummary().iTravelMode)) {
+				continue;
+			}
+
+			if (route.getLine() != null) {
+				Polyline line = iMap.addPolyline(route.getLine());
+				// the camera could move since the preparation
+				if (iZoomLevel != iRoutes.getZoomLevel()) {
+					line.setPoints(MapRoutes.getPoints(route.getSimplifier(),
+							iZoomLevel));
+				}
+				iLines.add(new RouteLine(line, route.getSimplifier()));
+			}
+
+			iMap.addMarker(route.getStartMarker());
+			iMap.addMarker(route.getEndMarker());
+			showRouteDetails(route.getSummary().iDetails);
+		}
+		updateSteps();
+
+		// prepare maps bounds for zoom
+		LatLngBounds bounds = iRoutes.getBounds(aTravelMode);
+		if (bounds == null) {
+			return null;
+		}
+		return CameraUpdateFactory.newLatLngBounds(bounds, BOUNDS_PADDING);
+	}
+
+	/**
+	 * Moves the camera. The update is postponed, until the map is loaded
+	 * 
+	 * @param aUpdate
+	 *            Camera update. Can be null
+	 */
+	private void moveCamera(CameraUpdate aUpdate) {
+		if (aUpdate == null) {
+			return;
+		}
+
+		if (iMapLoaded) {
+			iMap.animateCamera(aUpdate);
+		} else {
+			iPendingUpdate = aUpdate;
+		}
+	}
+
+	/**
+	 * Updates the shown lines, when the zoom level is changed
+	 * 
+	 * @param aZoom
+	 *            Camera zoom
+	 */
+	private void updateZoomLevel(float aZoom) {
+		int zoomLevel = PolylineSimplifier.toZoomLevel(aZoom);
+		if (zoomLevel == iZoomLevel) {
+			return;
+		}
+		iZoomLevel = zoomLevel;
+
+		for (RouteLine line : iLines) {
+			line.iPolyline.setPoints(MapRoutes.getPoints(line.iSimplifier,
+					iZoomLevel));
+		}
+	}
+
+	/**
+	 * Attaches the steps near the visible region to the map and detaches the
+	 * rest of them. Steps are looked up in the spatial index, so the cost
+	 * depends on the number of the visible steps only
+	 */
+	private void updateSteps() {
+		if (!iShowSteps || iSteps == null) {
+			detachSteps();
+			return;
+		}
+
+		LatLngBounds visible = iMap.getProjection().getVisibleRegion().latLngBounds;
+		double south = visible.southwest.latitude;
+		double north = visible.northeast.latitude;
+		double west = visible.southwest.longitude;
+		double east = visible.northeast.longitude;
+		if (west > east) {
+			// the region crosses the 180th meridian
+			west = -180;
+			east = 180;
+		}
+		double latMargin = (north - south) * STEPS_MARGIN;
+		double lngMargin = (east - west) * STEPS_MARGIN;
+
+		int found = iSteps.findSteps(south - latMargin, west - lngMargin,
+				north + latMargin, east + lngMargin, iShownTravelMode,
+				iFoundSteps);
+		found = iSteps.selectLargest(iFoundSteps, found, MAX_SHOWN_STEPS);
+
+		for (int i = 0; i < found; i++) {
+			iFoundFlags[iFoundSteps[i]] = true;
+		}
+
+		// detach the steps out of the region
+		for (int i = iStepOverlays.size() - 1; i >= 0; i--) {
+			int step = iStepOverlays.keyAt(i);
+			if (!iFoundFlags[step]) {
+				iStepOverlays.valueAt(i).remove();
+				iStepOverlays.removeAt(i);
+			}
+		}
+
+		// attach the new ones
+		for (int i = 0; i < found; i++) {
+			int step = iFoundSteps[i];
+			iFoundFlags[step] = false;
+			if (iStepOverlays.get(step) == null) {
+				Polyline line = iMap.addPolyline(iSteps.getLine(step));
+				Marker marker = iMap.addMarker(iSteps.getMarker(step));
+				iStepOverlays.put(step, new StepOverlay(line, marker));
+			}
+		}
+	}
+
+
+	/**
+	 * Detaches all steps from the map
+	 */
+	private void detachSteps() {
+		for (int i = 0; i < iStepOverlays.size(); i++) {
+			iStepOverlays.valueAt(i).remove();
+		}
+		iStepOverlays.clear();
+	}
+
+	/**
+	 * Called, when the steps are prepared
+	 * 
+	 * @param aSteps
+	 *            Prepared steps
+	 */
+	private void stepsPrepared(MapSteps aSteps) {
+		iSteps = aSteps;
+		iFoundSteps = new int[aSteps.getCount()];
+		iFoundFlags = new boolean[aSteps.getCount()];
+		updateSteps();
+	}
+
 	/*
 	 * @see android.app.Activity#onCreateOptionsMenu(android.view.Menu)
 	 */
@@ -99,7 +418,31 @@ public class MapScreen extends Activity {
 		getMenuInflater().inflate(R.menu.map_menu, menu);
 		return true;
 	}
-	
+
+	/*
+	 * @see android.app.Activity#onPrepareOptionsMenu(android.view.Menu)
+	 */
+	@Override
+	public boolean onPrepareOptionsMenu(Menu menu) {
+		// modes can be switched only when the routes were compared
+		List<String> modes = new ArrayList<String>();
+		if (iRoutes != null) {
+			modes = iRoutes.getTravelModes();
+		}
+		boolean compared = modes.size() > 1;
+		MenuItem steps = menu.findItem(R.id.map_steps);
+		steps.setVisible(iRoutes != null);
+		steps.setChecked(iShowSteps);
+		menu.findItem(R.id.map_mode_all).setVisible(compared);
+		menu.findItem(R.id.map_mode_driving).setVisible(
+				compared && modes.contains(TravelMode.DRIVING));
+		menu.findItem(R.id.map_mode_walking).setVisible(
+				compared && modes.contains(TravelMode.WALKING));
+		menu.findItem(R.id.map_mode_bicycling).setVisible(
+				compared && modes.contains(TravelMode.BICYCLING));
+		return super.onPrepareOptionsMenu(menu);
+	}
+
 	/*
 	 * @see android.app.Activity#onOptionsItemSelected(android.view.MenuItem)
 	 */
@@ -107,7 +450,31 @@ public class MapScreen extends Activity {
 	public boolean onOptionsItemSelected(MenuItem aItem) {
 		switch (aItem.getItemId()) {
 		case R.id.route_details:
-			startActivity(new Intent(MapScreen.this, RouteDetailsScreen.class));
+			Intent intent = new Intent(MapScreen.this, RouteDetailsScreen.class);
+			intent.putExtra(EXTRA_SEARCH_ID, iSearchId);
+			startActivity(intent);
+			return true;
+		case R.id.map_steps:
+			iShowSteps = !iShowSteps;
+			if (iShowSteps && iSteps == null && iPrepareStepsTask == null) {
+				iPrepareStepsTask = new PrepareStepsAsyncTask(
+						iRoutes.getItems());
+				iPrepareStepsTask.execute();
+			}
+			updateSteps();
+			invalidateOptionsMenu();
+			return true;
+		case R.id.map_mode_all:
+			moveCamera(showRoutes(TravelMode.ALL));
+			return true;
+		case R.id.map_mode_driving:
+			moveCamera(showRoutes(TravelMode.DRIVING));
+			return true;
+		case R.id.map_mode_walking:
+			moveCamera(showRoutes(TravelMode.WALKING));
+			return true;
+		case R.id.map_mode_bicycling:
+			moveCamera(showRoutes(TravelMode.BICYCLING));
 			return true;
 		}
 		return super.onOptionsItemSelected(aItem);
@@ -129,99 +496,119 @@ public class MapScreen extends Activity {
 	}
 
 	/**
-	 * Draws the route on the map
+	 * Shows route details
 	 * 
-	 * @param aRoute
-	 *            Route for drawing
+	 * @param aDetails
+	 *            Route details
 	 */
-	private void drawRoute(Route aRoute) {
-
-		// decode polyline
-		String encodedPolyline = aRoute.iEncodedPolyline;
-		List<LatLng> points = PacketParser.decodePoly(encodedPolyline);
-
-		// adding all points to the line
-		PolylineOptions rectOptions = new PolylineOptions();
-		for (LatLng point : points) {
-			rectOptions.add(point);
-		}
-
-		// draw the line on the map
-		Polyline polyline = iMap.addPolyline(rectOptions);
-		polyline.setWidth(4.0f);
-		polyline.setColor(Color.RED);
+	private void showRouteDetails(RouteDetails aDetails) {
+		iCopyrights.setText(aDetails.getCopyrights());
+		iWarnings.setText(aDetails.getWarnings());
 	}
 
 	/**
-	 * Shows the route markers
+	 * Prepares the routes for showing in background
+	 * 
+	 * @author Dmytro Khmelenko
 	 * 
-	 * @param aRoute
-	 *            Route
 	 */
-	private void showRouteMarkers(Route aRoute) {
-		Location start = aRoute.iStartLocation;
-
-		// create start marker
-		MarkerOptions startMarker = new MarkerOptions();
-		startMarker.position(new LatLng(start.getLatitude(), start
-				.getLongitude()));
-		startMarker.title(aRoute.iStartAddress);
-
-		// adding marker
-		iMap.addMarker(startMarker);
-
-		Location end = aRoute.iEndLocation;
+	private class PrepareRoutesAsyncTask extends
+			AsyncTask<Void, LatLngBounds, MapRoutes> {
+
+		/** Id of the search */
+		private final long iSearchId;
+		/** Zoom level the lines are prepared for */
+		private final int iZoomLevel;
+
+		/**
+		 * Constructor
+		 * 
+		 * @param aSearchId
+		 *            Id of the search
+		 * @param aZoomLevel
+		 *            Zoom level the lines are prepared for
+		 */
+		public PrepareRoutesAsyncTask(long aSearchId, int aZoomLevel) {
+			iSearchId = aSearchId;
+			iZoomLevel = aZoomLevel;
+		}
 
-		MarkerOptions endMarker = new MarkerOptions();
-		endMarker.position(new LatLng(end.getLatitude(), end.getLongitude()));
-		endMarker.title(aRoute.iEndAddress);
+		/*
+		 * @see android.os.AsyncTask#doInBackground(Params[])
+		 */
+		@Override
+		protected MapRoutes doInBackground(Void... aParams) {
+			// the camera is positioned first, the bounds are read from a
+			// single row
+			LatLngBounds bounds = MapRoutes.loadSearchBounds(MapScreen.this,
+					iSearchId);
+			if (bounds != null) {
+				publishProgress(bounds);
+			}
+			return MapRoutes.prepare(MapScreen.this, iSearchId, iZoomLevel,
+					bounds);
+		}
 
-		// end marker has another icon
-		endMarker.icon(BitmapDescriptorFactory
-				.defaultMarker(BitmapDescriptorFactory.HUE_BLUE));
+		/*
+		 * @see android.os.AsyncTask#onProgressUpdate(Progress[])
+		 */
+		@Override
+		protected void onProgressUpdate(LatLngBounds... aBounds) {
+			super.onProgressUpdate(aBounds);
+			iCameraPositioned = true;
+			moveCamera(CameraUpdateFactory.newLatLngBounds(aBounds[0],
+					BOUNDS_PADDING));
+		}
 
-		// adding marker
-		iMap.addMarker(endMarker);
+		/*
+		 * @see android.os.AsyncTask#onPostExecute(java.lang.Object)
+		 */
+		@Override
+		protected void onPostExecute(MapRoutes aResult) {
+			super.onPostExecute(aResult);
+			iPrepareTask = null;
+			routesPrepared(aResult);
+		}
 	}
 
 	/**
-	 * Prepares the bounds for scaling the map
+	 * Prepares the steps of the routes in background
+	 * 
+	 * @author Dmytro Khmelenko
 	 * 
-	 * @param aBounds
-	 *            List of bounds
-	 * @return Camera update
 	 */
-	private CameraUpdate prepareMapBounds(List<RouteBounds> aBounds) {
-		LatLngBounds.Builder bounds = new LatLngBounds.Builder();
-
-		// add each bound to the bounds builder
-		for (RouteBounds bound : aBounds) {
-			Location northEast = bound.getNorthEast();
-			Location southWest = bound.getSouthWest();
-
-			LatLng tl = new LatLng(northEast.getLatitude(),
-					northEast.getLongitude());
-			LatLng br = new LatLng(southWest.getLatitude(),
-					southWest.getLongitude());
-
-			bounds.include(tl).include(br);
+	private class PrepareStepsAsyncTask extends
+			AsyncTask<Void, Void, MapSteps> {
+
+		/** Routes to prepare the steps for */
+		private final List<MapRoutes.Item> iRouteItems;
+
+		/**
+		 * Constructor
+		 * 
+		 * @param aRoutes
+		 *            Routes to prepare the steps for
+		 */
+		public PrepareStepsAsyncTask(List<MapRoutes.Item> aRoutes) {
+			iRouteItems = aRoutes;
 		}
 
-		int padding = 35; // offset from edges of the map in pixels
-		CameraUpdate cameraUpdate = CameraUpdateFactory.newLatLngBounds(
-				bounds.build(), padding);
-
-		return cameraUpdate;
-	}
+		/*
+		 * @see android.os.AsyncTask#doInBackground(Params[])
+		 */
+		@Override
+		protected MapSteps doInBackground(Void... aParams) {
+			return MapSteps.prepare(MapScreen.this, iRouteItems);
+		}
 
-	/**
-	 * Shows route details
-	 * 
-	 * @param aDetails
-	 *            Route details
-	 */
-	private void showRouteDetails(RouteDetails aDetails) {
-		iCopyrights.setText(aDetails.getCopyrights());
-		iWarnings.setText(aDetails.getWarnings());
+		/*
+		 * @see android.os.AsyncTask#onPostExecute(java.lang.Object)
+		 */
+		@Override
+		protected void onPostExecute(MapSteps aResult) {
+			super.onPostExecute(aResult);
+			iPrepareStepsTask = null;
+			stepsPrepared(aResult);
+		}
 	}
 }
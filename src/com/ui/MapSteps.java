@@ -0,0 +1,336 @@
+/**
+ * Copyright Khmelenko Lab
+ * Author: Dmytro Khmelenko
+ */
+package com.ui;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import android.content.Context;
+import android.location.Location;
+import android.text.Html;
+
+import com.google.android.gms.maps.model.BitmapDescriptorFactory;
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.MarkerOptions;
+import com.google.android.gms.maps.model.PolylineOptions;
+import com.store.Route;
+import com.store.RouteRepository;
+import com.store.RouteStep;
+import com.store.TravelMode;
+import com.utils.PackedRTree;
+import com.utils.PolylineCodec;
+
+/**
+ * Steps of the shown routes prepared for showing on the map. The steps are
+ * indexed by their bounding boxes, so only the steps near the visible region
+ * are looked up
+ * 
+ * @author Dmytro Khmelenko
+ * 
+ */
+final class MapSteps {
+
+	/** Width of the step line */
+	private static final float LINE_WIDTH = 8.0f;
+
+	/** Alpha of the step lines. Neighbour steps differ */
+	private static final int[] LINE_ALPHA = { 0x80, 0xc0 };
+
+	private final PolylineOptions[] iLines;
+	private final MarkerOptions[] iMarkers;
+
+	/** Travel modes of the step routes */
+	private final String[] iTravelModes;
+
+	/** Index of the step boxes: longitude is x, latitude is y */
+	private final PackedRTree iIndex;
+
+	/** Ranks of the steps by their size, the largest step is the first */
+	private final int[] iRanks;
+
+	/** Steps by their ranks */
+	private final int[] iOrder;
+
+	/** Buffer for the selected ranks */
+	private final int[] iSelected;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param aLines
+	 * @param aMarkers
+	 * @param aTravelModes
+	 * @param aIndex
+	 * @param aOrder
+	 */
+	private MapSteps(PolylineOptions[] aLines, MarkerOptions[] aMarkers,
+			String[] aTravelModes, PackedRTree aIndex, int[] aOrder) {
+		iLines = aLines;
+		iMarkers = aMarkers;
+		iTravelModes = aTravelModes;
+		iIndex = aIndex;
+		iOrder = aOrder;
+
+		iRanks = new int[aOrder.length];
+		for (int rank = 0; rank < aOrder.length; rank++) {
+			iRanks[aOrder[rank]] = rank;
+		}
+		iSelected = new int[aOrder.length];
+	}
+
+	/**
+	 * Gets the number of steps
+	 * 
+	 * @return Number of steps
+	 */
+	public int getCount() {
+		return iLines.length;
+	}
+
+	/**
+	 * Gets the line of the step
+	 * 
+	 * @param aStep
+	 *            Step index
+	 * @return Line options
+	 */
+	public PolylineOptions getLine(int aStep) {
+		return iLines[aStep];
+	}
+
+	/**
+	 * Gets the marker of the step start
+	 * 
+	 * @param aStep
+	 *            Step index
+	 * @return Marker options
+	 */
+	public MarkerOptions getMarker(int aStep) {
+		return iMarkers[aStep];
+	}
+
+	/**
+	 * Finds the steps of the travel mode, which intersect the region
+	 * 
+	 * @param aSouth
+	 *            South latitude of the region
+	 * @param aWest
+	 *            West longitude of the region
+	 * @param aNorth
+	 *            North latitude of the region
+	 * @param aEast
+	 *            East longitude of the region
+	 * @param aTravelMode
+	 *            Travel mode or {@link TravelMode#ALL}
+	 * @param aResults
+	 *            Array for the indices of the found steps. Its length should
+	 *            be at least {@link #getCount()}
+	 * @return Number of the found steps
+	 */
+	public int findSteps(double aSouth, double aWest, double aNorth,
+			double aEast, String aTravelMode, int[] aResults) {
+		int found = iIndex.search(aWest, aSouth, aEast, aNorth, aResults);
+		if (TravelMode.ALL.equals(aTravelMode)) {
+			return found;
+		}
+
+		// only the steps of the shown routes are kept
+		int count = 0;
+		for (int i = 0; i < found; i++) {
+			if (aTravelMode.equals(iTravelModes[aResults[i]])) {
+				aResults[count++] = aResults[i];
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Selects the largest steps. They are moved to the beginning of the array
+	 * 
+	 * @param aSteps
+	 *            Indices of the steps
+	 * @param aCount
+	 *            Number of the steps
+	 * @param aLimit
+	 *            Maximal number of the selected steps
+	 * @return Number of the selected steps
+	 */
+	public int selectLargest(int[] aSteps, int aCount, int aLimit) {
+		if (aCount <= aLimit) {
+			return aCount;
+		}
+
+		for (int i = 0; i < aCount; i++) {
+			iSelected[i] = iRanks[aSteps[i]];
+		}
+		Arrays.sort(iSelected, 0, aCount);
+		for (int i = 0; i < aLimit; i++) {
+			aSteps[i] = iOrder[iSelected[i]];
+		}
+		return aLimit;
+	}
+
+	/**
+	 * Prepares the steps of the routes. Should be called in background
+	 * 
+	 * @param aContext
+	 *            Context
+	 * @param aRoutes
+	 *            Prepared routes
+	 * @return Prepared steps
+	 */
+	static MapSteps prepare(Context aContext, List<MapRoutes.Item> aRoutes) {
+		RouteRepository repository = RouteRepository.getInstance(aContext);
+
+		List<PolylineOptions> lines = new ArrayList<PolylineOptions>();
+		List<MarkerOptions> markers = new ArrayList<MarkerOptions>();
+		List<String> modes = new ArrayList<String>();
+		List<double[]> boxes = new ArrayList<double[]>();
+
+		for (MapRoutes.Item item : aRoutes) {
+			Route route = repository.getRoute(item.getSummary().iId);
+			if (route == null) {
+				continue;
+			}
+
+			int color = MapRoutes.getRouteColor(route.iTravelMode) & 0xffffff;
+			for (RouteStep step : route.iSteps) {
+				double[] box = new double[4];
+				PolylineOptions line = createLine(step, box);
+				line.color(LINE_ALPHA[lines.size() % LINE_ALPHA.length] << 24
+						| color);
+
+				lines.add(line);
+				markers.add(createMarker(step));
+				modes.add(route.iTravelMode);
+				boxes.add(box);
+			}
+		}
+
+		int count = lines.size();
+		double[] packed = new double[4 * count];
+		for (int i = 0; i < count; i++) {
+			System.arraycopy(boxes.get(i), 0, packed, 4 * i, 4);
+		}
+		PackedRTree index = new PackedRTree(packed, count);
+
+		return new MapSteps(lines.toArray(new PolylineOptions[count]),
+				markers.toArray(new MarkerOptions[count]),
+				modes.toArray(new String[count]), index, orderBySize(packed,
+						count));
+	}
+
+	/**
+	 * Orders the steps by the size of their boxes, from the largest one
+	 * 
+	 * @param aBoxes
+	 *            Boxes of the steps
+	 * @param aCount
+	 *            Number of the steps
+	 * @return Step indices in order
+	 */
+	private static int[] orderBySize(double[] aBoxes, int aCount) {
+		final double[] sizes = new double[aCount];
+		Integer[] steps = new Integer[aCount];
+		for (int i = 0; i < aCount; i++) {
+			double width = aBoxes[4 * i + 2] - aBoxes[4 * i];
+			double height = aBoxes[4 * i + 3] - aBoxes[4 * i + 1];
+			sizes[i] = width * width + height * height;
+			steps[i] = i;
+		}
+
+		Arrays.sort(steps, new Comparator<Integer>() {
+
+			@Override
+			public int compare(Integer aLhs, Integer aRhs) {
+				return Double.compare(sizes[aRhs], sizes[aLhs]);
+			}
+		});
+
+		int[] order = new int[aCount];
+		for (int i = 0; i < aCount; i++) {
+			order[i] = steps[i];
+		}
+		return order;
+	}
+
+	/**
+	 * Creates the line of the step and calculates its bounding box
+	 * 
+	 * @param aStep
+	 *            Step
+	 * @param aBox
+	 *            Array for the box: west, south, east, north
+	 * @return Line options
+	 */
+	private static PolylineOptions createLine(RouteStep aStep, double[] aBox) {
+		PolylineOptions line = new PolylineOptions();
+		line.width(LINE_WIDTH);
+
+		Location startLocation = aStep.getStartLocation();
+		Location endLocation = aStep.getEndLocation();
+		aBox[0] = Math.min(startLocation.getLongitude(),
+				endLocation.getLongitude());
+		aBox[1] = Math.min(startLocation.getLatitude(),
+				endLocation.getLatitude());
+		aBox[2] = Math.max(startLocation.getLongitude(),
+				endLocation.getLongitude());
+		aBox[3] = Math.max(startLocation.getLatitude(),
+				endLocation.getLatitude());
+
+		double[] coordinates = null;
+		int count = 0;
+		byte[] points = aStep.getPointsData();
+		if (points != null) {
+			ByteBuffer data = ByteBuffer.wrap(points);
+			coordinates = new double[2 * PolylineCodec.countPoints(data)];
+			count = PolylineCodec.decode(data, coordinates);
+		}
+
+		// steps without the line are drawn straight
+		if (count < 2) {
+			line.add(new LatLng(startLocation.getLatitude(), startLocation
+					.getLongitude()));
+			line.add(new LatLng(endLocation.getLatitude(), endLocation
+					.getLongitude()));
+			return line;
+		}
+
+		for (int i = 0; i < count; i++) {
+			double lat = coordinates[2 * i];
+			double lng = coordinates[2 * i + 1];
+			line.add(new LatLng(lat, lng));
+
+			aBox[0] = Math.min(aBox[0], lng);
+			aBox[1] = Math.min(aBox[1], lat);
+			aBox[2] = Math.max(aBox[2], lng);
+			aBox[3] = Math.max(aBox[3], lat);
+		}
+		return line;
+	}
+
+	/**
+	 * Creates the marker of the step start
+	 * 
+	 * @param aStep
+	 *            Step
+	 * @return Marker options
+	 */
+	private static MarkerOptions createMarker(RouteStep aStep) {
+		Location start = aStep.getStartLocation();
+
+		MarkerOptions marker = new MarkerOptions();
+		marker.position(new LatLng(start.getLatitude(), start.getLongitude()));
+		if (aStep.getInstructions() != null) {
+			marker.title(Html.fromHtml(aStep.getInstructions()).toString());
+		}
+		marker.icon(BitmapDescriptorFactory
+				.defaultMarker(BitmapDescriptorFactory.HUE_ORANGE));
+		return marker;
+	}
+}
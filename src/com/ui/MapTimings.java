@@ -0,0 +1,85 @@
+/**
+ * Copyright Khmelenko Lab
+ * Author: Dmytro Khmelenko
+ */
+package com.ui;
+
+/**
+ * Timings of showing the routes on the map. The stages run in background,
+ * only the attaching runs on the UI thread
+ * 
+ * @author Dmytro Khmelenko
+ * 
+ */
+public final class MapTimings {
+
+	private final long iLoadTime;
+	private final long iSimplifyTime;
+	private final long iBuildTime;
+	private final long iAttachTime;
+	private final long iShownTime;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param aLoadTime
+	 * @param aSimplifyTime
+	 * @param aBuildTime
+	 * @param aAttachTime
+	 * @param aShownTime
+	 */
+	MapTimings(long aLoadTime, long aSimplifyTime, long aBuildTime,
+			long aAttachTime, long aShownTime) {
+		iLoadTime = aLoadTime;
+		iSimplifyTime = aSimplifyTime;
+		iBuildTime = aBuildTime;
+		iAttachTime = aAttachTime;
+		iShownTime = aShownTime;
+	}
+
+	/**
+	 * Gets the time of loading the routes from the DB
+	 * 
+	 * @return Time in milliseconds
+	 */
+	public long getLoadTime() {
+		return iLoadTime;
+	}
+
+	/**
+	 * Gets the time of decoding and simplifying the route lines
+	 * 
+	 * @return Time in milliseconds
+	 */
+	public long getSimplifyTime() {
+		return iSimplifyTime;
+	}
+
+	/**
+	 * Gets the time of building the lines, markers and bounds
+	 * 
+	 * @return Time in milliseconds
+	 */
+	public long getBuildTime() {
+		return iBuildTime;
+	}
+
+	/**
+	 * Gets the time of attaching the routes to the map on the UI thread
+	 * 
+	 * @return Time in milliseconds
+	 */
+	public long getAttachTime() {
+		return iAttachTime;
+	}
+
+	/**
+	 * Gets the time from the screen creation until the routes are attached to
+	 * the map, so they are drawn in the next frame
+	 * 
+	 * @return Time in milliseconds
+	 */
+	public long getShownTime() {
+		return iShownTime;
+	}
+}
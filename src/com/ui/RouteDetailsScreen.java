@@ -7,7 +7,7 @@ import android.os.Bundle;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.FragmentActivity;
 import android.support.v4.app.FragmentManager;
-import android.support.v4.app.FragmentPagerAdapter;
+import android.support.v4.app.FragmentStatePagerAdapter;
 import android.support.v4.view.ViewPager;
 import android.text.Html;
 import android.view.LayoutInflater;
@@ -20,6 +20,8 @@ import android.widget.TextView;
 import com.khmelenko.lab.simpleroute.R;
 import com.store.DbEngine;
 import com.store.Route;
+import com.store.RouteRepository;
+import com.store.RouteSummary;
 import com.store.RouteStep;
 import com.utils.DateTimeUtils;
 import com.utils.MetricUtils;
@@ -29,10 +31,9 @@ public class RouteDetailsScreen extends FragmentActivity {
 	/**
 	 * The {@link android.support.v4.view.PagerAdapter} that will provide
 	 * fragments for each of the sections. We use a
-	 * {@link android.support.v4.app.FragmentPagerAdapter} derivative, which
-	 * will keep every loaded fragment in memory. If this becomes too memory
-	 * intensive, it may be best to switch to a
-	 * {@link android.support.v4.app.FragmentStatePagerAdapter}.
+	 * {@link android.support.v4.app.FragmentStatePagerAdapter} derivative, so
+	 * the pages are created on demand and the pages far from the current one
+	 * are released together with their steps.
 	 */
 	private SectionsPagerAdapter iSectionsPagerAdapter;
 
@@ -41,16 +42,16 @@ public class RouteDetailsScreen extends FragmentActivity {
 	 */
 	private ViewPager iViewPager;
 
-	private List<Route> iRoutes;
+	private List<RouteSummary> iRoutes;
 
 	@Override
 	protected void onCreate(Bundle savedInstanceState) {
 		super.onCreate(savedInstanceState);
 		setContentView(R.layout.route_details_screen);
 
-		DbEngine dbEngine = new DbEngine(getApplicationContext());
-		iRoutes = dbEngine.getAllRoutes();
-		dbEngine.close();
+		long searchId = getIntent().getLongExtra(MapScreen.EXTRA_SEARCH_ID,
+				DbEngine.NO_SEARCH);
+		iRoutes = RouteRepository.getInstance(this).getSummaries(searchId);
 
 		// Create the adapter that will return a fragment for each of the three
 		// primary sections of the app.
@@ -68,7 +69,7 @@ public class RouteDetailsScreen extends FragmentActivity {
 	 * @author Dmytro Khmelenko
 	 * 
 	 */
-	private class SectionsPagerAdapter extends FragmentPagerAdapter {
+	private class SectionsPagerAdapter extends FragmentStatePagerAdapter {
 
 		/**
 		 * Constructor
@@ -84,7 +85,8 @@ public class RouteDetailsScreen extends FragmentActivity {
 		public Fragment getItem(int aPosition) {
 			Fragment fragment = new DummySectionFragment();
 			Bundle args = new Bundle();
-			args.putInt(DummySectionFragment.ARG_SECTION_NUMBER, aPosition);
+			args.putInt(DummySectionFragment.ARG_ROUTE_ID,
+					iRoutes.get(aPosition).iId);
 			fragment.setArguments(args);
 			return fragment;
 		}
@@ -96,7 +98,7 @@ public class RouteDetailsScreen extends FragmentActivity {
 
 		@Override
 		public CharSequence getPageTitle(int aPosition) {
-			Route route = iRoutes.get(aPosition);
+			RouteSummary route = iRoutes.get(aPosition);
 			String routeName = route.iDetails.getSummary();
 			if (routeName == null || routeName.isEmpty()) {
 				routeName = getResources().getString(R.string.route_no_name);
@@ -116,10 +118,10 @@ public class RouteDetailsScreen extends FragmentActivity {
 	 */
 	public static class DummySectionFragment extends Fragment {
 		/**
-		 * The fragment argument representing the section number for this
-		 * fragment.
+		 * The fragment argument representing the id of the route shown by
+		 * this fragment.
 		 */
-		public static final String ARG_SECTION_NUMBER = "section_number";
+		public static final String ARG_ROUTE_ID = "route_id";
 
 		/**
 		 * Constructor
@@ -138,15 +140,15 @@ public class RouteDetailsScreen extends FragmentActivity {
 			View rootView = aInflater.inflate(
 					R.layout.route_details_screen_fragment, aContainer, false);
 
-			int position = getArguments().getInt(ARG_SECTION_NUMBER);
+			int routeId = getArguments().getInt(ARG_ROUTE_ID);
 
-			// retrieving routes from DB
-			DbEngine dbEngine = new DbEngine(getActivity()
-					.getApplicationContext());
-			List<Route> routes = dbEngine.getAllRoutes();
-			dbEngine.close();
-
-			Route activeRoute = routes.get(position);
+			// steps are loaded only when the page is shown
+			Route activeRoute = RouteRepository.getInstance(getActivity())
+					.getRoute(routeId);
+			if (activeRoute == null) {
+				// the route was replaced by the refreshed search
+				return rootView;
+			}
 
 			// update route info
 			TextView routeInfo = (TextView) rootView
@@ -0,0 +1,471 @@
+/**
+ * Copyright Khmelenko Lab
+ * Author: Dmytro Khmelenko
+ */
+package com.utils;
+
+import java.util.Arrays;
+
+/**
+ * Static spatial index of the bounding boxes. The boxes are sorted by the
+ * Hilbert values of their centers and packed into full nodes bottom up, so the
+ * tree is built once in O(n log n) and kept in a few flat arrays. It can't be
+ * changed after the build
+ * 
+ * @author Dmytro Khmelenko
+ * 
+ */
+public final class PackedRTree {
+
+	/** Maximal number of children of the node */
+	private static final int NODE_SIZE = 16;
+
+	/** Maximal coordinate of the Hilbert curve */
+	private static final int HILBERT_MAX = (1 << 16) - 1;
+
+	/**
+	 * Measures the distance to the query for the nearest search
+	 * 
+	 * @author Dmytro Khmelenko
+	 * 
+	 */
+	public interface Metric {
+
+		/**
+		 * Gets the distance to the box. It should not be larger than the
+		 * distance to any item inside the box
+		 * 
+		 * @param aMinX
+		 *            Min x of the box
+		 * @param aMinY
+		 *            Min y of the box
+		 * @param aMaxX
+		 *            Max x of the box
+		 * @param aMaxY
+		 *            Max y of the box
+		 * @return Distance
+		 */
+		public double boxDistance(double aMinX, double aMinY, double aMaxX,
+				double aMaxY);
+
+		/**
+		 * Gets the exact distance to the item
+		 * 
+		 * @param aIndex
+		 *            Item index
+		 * @return Distance
+		 */
+		public double itemDistance(int aIndex);
+	}
+
+	/** Number of the indexed items */
+	private final int iCount;
+
+	/** Boxes of the nodes: min x, min y, max x, max y. Leaves go first */
+	private final double[] iBoxes;
+
+	/** Item index for the leaves, position of the first child for the rest */
+	private final int[] iIndices;
+
+	/** End positions of the tree levels, from the leaves to the root */
+	private final int[] iLevelBounds;
+
+	/**
+	 * Builds the tree
+	 * 
+	 * @param aBoxes
+	 *            Boxes of the items: min x, min y, max x, max y for each item
+	 * @param aCount
+	 *            Number of items
+	 */
+	public PackedRTree(double[] aBoxes, int aCount) {
+		iCount = aCount;
+
+		// number of nodes on each level
+		int[] levelBounds = new int[32];
+		int levels = 0;
+		int nodes = aCount;
+		int total = aCount;
+		levelBounds[levels++] = total;
+		while (nodes > 1) {
+			nodes = (nodes + NODE_SIZE - 1) / NODE_SIZE;
+			total += nodes;
+			levelBounds[levels++] = total;
+		}
+		iLevelBounds = Arrays.copyOf(levelBounds, levels);
+		iBoxes = new double[4 * total];
+		iIndices = new int[total];
+
+		if (aCount == 0) {
+			return;
+		}
+
+		sortLeaves(aBoxes, aCount);
+
+		// parents are the union of their children
+		int position = 0;
+		int parent = aCount;
+		for (int level = 0; level < levels - 1; level++) {
+			int end = iLevelBounds[level];
+			while (position < end) {
+				int first = position;
+				double minX = Double.POSITIVE_INFINITY;
+				double minY = Double.POSITIVE_INFINITY;
+				double maxX = Double.NEGATIVE_INFINITY;
+				double maxY = Double.NEGATIVE_INFINITY;
+				for (int i = 0; i < NODE_SIZE && position < end; i++, position++) {
+					minX = Math.min(minX, iBoxes[4 * position]);
+					minY = Math.min(minY, iBoxes[4 * position + 1]);
+					maxX = Math.max(maxX, iBoxes[4 * position + 2]);
+					maxY = Math.max(maxY, iBoxes[4 * position + 3]);
+				}
+				iBoxes[4 * parent] = minX;
+				iBoxes[4 * parent + 1] = minY;
+				iBoxes[4 * parent + 2] = maxX;
+				iBoxes[4 * parent + 3] = maxY;
+				iIndices[parent] = first;
+				parent++;
+			}
+		}
+	}
+
+	/**
+	 * Gets the number of the indexed items
+	 * 
+	 * @return Number of items
+	 */
+	public int getCount() {
+		return iCount;
+	}
+
+	/**
+	 * Finds the items, which boxes intersect the query box
+	 * 
+	 * @param aMinX
+	 *            Min x of the query box
+	 * @param aMinY
+	 *            Min y of the query box
+	 * @param aMaxX
+	 *            Max x of the query box
+	 * @param aMaxY
+	 *            Max y of the query box
+	 * @param aResults
+	 *            Array for the indices of the found items. Its length should
+	 *            be at least {@link #getCount()}
+	 * @return Number of the found items
+	 */
+	public int search(double aMinX, double aMinY, double aMaxX, double aMaxY,
+			int[] aResults) {
+		if (iCount == 0) {
+			return 0;
+		}
+
+		// groups of children to check: first position and level
+		int[] stack = new int[2 * NODE_SIZE * iLevelBounds.length];
+		int size = 0;
+		int found = 0;
+
+		int level = iLevelBounds.length - 1;
+		int position = iLevelBounds[level] - 1;
+		while (true) {
+			int end = Math.min(position + NODE_SIZE, iLevelBounds[level]);
+			for (int node = position; node < end; node++) {
+				if (aMaxX < iBoxes[4 * node] || aMaxY < iBoxes[4 * node + 1]
+						|| aMinX > iBoxes[4 * node + 2]
+						|| aMinY > iBoxes[4 * node + 3]) {
+					continue;
+				}
+
+				if (level == 0) {
+					aResults[found++] = iIndices[node];
+				} else {
+					stack[size++] = iIndices[node];
+					stack[size++] = level - 1;
+				}
+			}
+
+			if (size == 0) {
+				return found;
+			}
+			level = stack[--size];
+			position = stack[--size];
+		}
+	}
+
+	/**
+	 * Finds the nearest item. The nodes are visited in the order of their
+	 * distance, so the exact distance is measured only for the items close to
+	 * the query
+	 * 
+	 * @param aMetric
+	 *            Distance to the query
+	 * @param aMaxDistance
+	 *            Maximal distance of the item
+	 * @return Index of the nearest item or -1, if there is no item within the
+	 *         distance
+	 */
+	public int nearest(Metric aMetric, double aMaxDistance) {
+		if (iCount == 0) {
+			return -1;
+		}
+
+		Queue queue = new Queue();
+		int level = iLevelBounds.length - 1;
+		int root = iLevelBounds[level] - 1;
+		if (level == 0) {
+			queue.push(aMetric.itemDistance(iIndices[root]), iIndices[root],
+					-1);
+		} else {
+			queue.push(aMetric.boxDistance(iBoxes[4 * root],
+					iBoxes[4 * root + 1], iBoxes[4 * root + 2],
+					iBoxes[4 * root + 3]), root, level);
+		}
+
+		while (queue.size() > 0) {
+			double distance = queue.topDistance();
+			int position = queue.topPosition();
+			level = queue.topLevel();
+			queue.pop();
+			if (distance > aMaxDistance) {
+				return -1;
+			}
+
+			// the item is closer than anything left
+			if (level < 0) {
+				return position;
+			}
+
+			int first = iIndices[position];
+			int end = Math.min(first + NODE_SIZE, iLevelBounds[level - 1]);
+			for (int node = first; node < end; node++) {
+				if (level == 1) {
+					int index = iIndices[node];
+					queue.push(aMetric.itemDistance(index), index, -1);
+				} else {
+					queue.push(aMetric.boxDistance(iBoxes[4 * node],
+							iBoxes[4 * node + 1], iBoxes[4 * node + 2],
+							iBoxes[4 * node + 3]), node, level - 1);
+				}
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Sorts the items by the Hilbert values of their centers and puts them to
+	 * the leaves
+	 * 
+	 * @param aBoxes
+	 *            Boxes of the items
+	 * @param aCount
+	 *            Number of items
+	 */
+	private void sortLeaves(double[] aBoxes, int aCount) {
+		double minX = Double.POSITIVE_INFINITY;
+		double minY = Double.POSITIVE_INFINITY;
+		double maxX = Double.NEGATIVE_INFINITY;
+		double maxY = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < aCount; i++) {
+			minX = Math.min(minX, aBoxes[4 * i]);
+			minY = Math.min(minY, aBoxes[4 * i + 1]);
+			maxX = Math.max(maxX, aBoxes[4 * i + 2]);
+			maxY = Math.max(maxY, aBoxes[4 * i + 3]);
+		}
+		double width = maxX - minX;
+		double height = maxY - minY;
+
+		// the key holds the Hilbert value in the upper half and the item
+		// index in the lower one. The sign bit is flipped for unsigned order
+		long[] keys = new long[aCount];
+		for (int i = 0; i < aCount; i++) {
+			double centerX = (aBoxes[4 * i] + aBoxes[4 * i + 2]) / 2;
+			double centerY = (aBoxes[4 * i + 1] + aBoxes[4 * i + 3]) / 2;
+			int x = width > 0 ? (int) (HILBERT_MAX * (centerX - minX) / width)
+					: 0;
+			int y = height > 0 ? (int) (HILBERT_MAX * (centerY - minY)
+					/ height) : 0;
+			long value = hilbert(x, y) & 0xffffffffL;
+			keys[i] = ((value << 32) | i) ^ Long.MIN_VALUE;
+		}
+		Arrays.sort(keys);
+
+		for (int i = 0; i < aCount; i++) {
+			int index = (int) keys[i];
+			System.arraycopy(aBoxes, 4 * index, iBoxes, 4 * i, 4);
+			iIndices[i] = index;
+		}
+	}
+
+	/**
+	 * Calculates the position of the point on the Hilbert curve
+	 * 
+	 * @param aX
+	 *            X in range 0..65535
+	 * @param aY
+	 *            Y in range 0..65535
+	 * @return Position on the curve. Should be treated as unsigned
+	 */
+	private static int hilbert(int aX, int aY) {
+		int a = aX ^ aY;
+		int b = 0xffff ^ a;
+		int c = 0xffff ^ (aX | aY);
+		int d = aX & (aY ^ 0xffff);
+
+		int na = a | (b >> 1);
+		int nb = (a >> 1) ^ a;
+		int nc = ((c >> 1) ^ (b & (d >> 1))) ^ c;
+		int nd = ((a & (c >> 1)) ^ (d >> 1)) ^ d;
+
+		a = na;
+		b = nb;
+		c = nc;
+		d = nd;
+		na = (a & (a >> 2)) ^ (b & (b >> 2));
+		nb = (a & (b >> 2)) ^ (b & ((a ^ b) >> 2));
+		nc ^= (a & (c >> 2)) ^ (b & (d >> 2));
+		nd ^= (b & (c >> 2)) ^ ((a ^ b) & (d >> 2));
+
+		a = na;
+		b = nb;
+		c = nc;
+		d = nd;
+		na = (a & (a >> 4)) ^ (b & (b >> 4));
+		nb = (a & (b >> 4)) ^ (b & ((a ^ b) >> 4));
+		nc ^= (a & (c >> 4)) ^ (b & (d >> 4));
+		nd ^= (b & (c >> 4)) ^ ((a ^ b) & (d >> 4));
+
+		a = na;
+		b = nb;
+		c = nc;
+		d = nd;
+		nc ^= (a & (c >> 8)) ^ (b & (d >> 8));
+		nd ^= (b & (c >> 8)) ^ ((a ^ b) & (d >> 8));
+
+		a = nc ^ (nc >> 1);
+		b = nd ^ (nd >> 1);
+
+		int i0 = aX ^ aY;
+		int i1 = b | (0xffff ^ (i0 | a));
+
+		return (interleave(i1) << 1) | interleave(i0);
+	}
+
+	/**
+	 * Spreads the lower 16 bits of the value to the even bits
+	 * 
+	 * @param aValue
+	 *            Value
+	 * @return Spread value
+	 */
+	private static int interleave(int aValue) {
+		int value = aValue & 0xffff;
+		value = (value | (value << 8)) & 0x00ff00ff;
+		value = (value | (value << 4)) & 0x0f0f0f0f;
+		value = (value | (value << 2)) & 0x33333333;
+		value = (value | (value << 1)) & 0x55555555;
+		return value;
+	}
+
+	/**
+	 * Priority queue of the nodes and items by their distance
+	 * 
+	 * @author Dmytro Khmelenko
+	 * 
+	 */
+	private static class Queue {
+		private double[] iDistances = new double[64];
+		private int[] iPositions = new int[64];
+		/** Level of the node or -1 for the item */
+		private int[] iLevels = new int[64];
+		private int iSize;
+
+		public int size() {
+			return iSize;
+		}
+
+		public double topDistance() {
+			return iDistances[0];
+		}
+
+		public int topPosition() {
+			return iPositions[0];
+		}
+
+		public int topLevel() {
+			return iLevels[0];
+		}
+
+		/**
+		 * Adds the entry
+		 * 
+		 * @param aDistance
+		 *            Distance
+		 * @param aPosition
+		 *            Node position or item index
+		 * @param aLevel
+		 *            Node level or -1 for the item
+		 */
+		public void push(double aDistance, int aPosition, int aLevel) {
+			if (iSize == iDistances.length) {
+				iDistances = Arrays.copyOf(iDistances, 2 * iSize);
+				iPositions = Arrays.copyOf(iPositions, 2 * iSize);
+				iLevels = Arrays.copyOf(iLevels, 2 * iSize);
+			}
+
+			// sift up
+			int child = iSize++;
+			while (child > 0) {
+				int parent = (child - 1) / 2;
+				if (iDistances[parent] <= aDistance) {
+					break;
+				}
+				move(parent, child);
+				child = parent;
+			}
+			iDistances[child] = aDistance;
+			iPositions[child] = aPosition;
+			iLevels[child] = aLevel;
+		}
+
+		/**
+		 * Removes the nearest entry
+		 */
+		public void pop() {
+			iSize--;
+			double distance = iDistances[iSize];
+
+			// sift down the last entry
+			int parent = 0;
+			while (true) {
+				int child = 2 * parent + 1;
+				if (child >= iSize) {
+					break;
+				}
+				if (child + 1 < iSize
+						&& iDistances[child + 1] < iDistances[child]) {
+					child++;
+				}
+				if (distance <= iDistances[child]) {
+					break;
+				}
+				move(child, parent);
+				parent = child;
+			}
+			move(iSize, parent);
+		}
+
+		/**
+		 * Moves the entry
+		 * 
+		 * @param aFrom
+		 *            Source index
+		 * @param aTo
+		 *            Target index
+		 */
+		private void move(int aFrom, int aTo) {
+			iDistances[aTo] = iDistances[aFrom];
+			iPositions[aTo] = iPositions[aFrom];
+			iLevels[aTo] = iLevels[aFrom];
+		}
+	}
+}
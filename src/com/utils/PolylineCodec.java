@@ -0,0 +1,196 @@
+/**
+ * Copyright Khmelenko Lab
+ * Author: Dmytro Khmelenko
+ */
+package com.utils;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Converts the polylines between the text encoding of the Google API and the
+ * compact binary form. The binary form starts with the number of points,
+ * followed by the zigzag encoded deltas of latitude and longitude of each
+ * point. All values are stored as varints. Decoded coordinates are equal to
+ * the ones of {@link PolylineDecoder}
+ * 
+ * @author Dmytro Khmelenko
+ * 
+ */
+public final class PolylineCodec {
+
+	/** Scale of the encoded coordinates: 5 decimal digits */
+	private static final double SCALE = 1E5;
+
+	/** Maximal length of the varint of 32 bit value */
+	private static final int MAX_VARINT_LENGTH = 5;
+
+	/**
+	 * Denied constructor
+	 */
+	private PolylineCodec() {
+	}
+
+	/**
+	 * Converts the text encoded polyline to the binary form
+	 * 
+	 * @param aEncoded
+	 *            Polyline encoded by the Google API
+	 * @return Binary polyline
+	 */
+	public static byte[] toBinary(String aEncoded) {
+		int count = PolylineDecoder.countPoints(aEncoded);
+		byte[] data = new byte[MAX_VARINT_LENGTH * (1 + 2 * count)];
+		int position = writeVarint(data, 0, count);
+
+		// text encoding uses zigzag values as well, only the chunks differ
+		int index = 0, len = aEncoded.length();
+		while (index < len) {
+			int b, shift = 0, result = 0;
+			do {
+				b = aEncoded.charAt(index++) - 63;
+				result |= (b & 0x1f) << shift;
+				shift += 5;
+			} while (b >= 0x20);
+			position = writeVarint(data, position, result);
+		}
+
+		return Arrays.copyOf(data, position);
+	}
+
+	/**
+	 * Converts the binary polyline to the text encoding of the Google API
+	 * 
+	 * @param aData
+	 *            Binary polyline
+	 * @return Text encoded polyline
+	 */
+	public static String toText(ByteBuffer aData) {
+		// the view shares the content, only the position is own
+		ByteBuffer data = aData.duplicate();
+		int count = readVarint(data);
+
+		StringBuilder encoded = new StringBuilder(count * 8);
+		for (int i = 0; i < 2 * count; i++) {
+			int value = readVarint(data);
+
+			while ((value & ~0x1f) != 0) {
+				encoded.append((char) ((0x20 | (value & 0x1f)) + 63));
+				value >>>= 5;
+			}
+			encoded.append((char) (value + 63));
+		}
+		return encoded.toString();
+	}
+
+	/**
+	 * Gets the number of points of the binary polyline
+	 * 
+	 * @param aData
+	 *            Binary polyline
+	 * @return Number of points
+	 */
+	public static int countPoints(ByteBuffer aData) {
+		return readVarint(aData.duplicate());
+	}
+
+	/**
+	 * Decodes the binary polyline into the array of coordinates. The buffer is
+	 * read in place, its position is not changed
+	 * 
+	 * @param aData
+	 *            Binary polyline
+	 * @param aCoordinates
+	 *            Array for the coordinates: latitude and longitude in degrees
+	 *            for each point. Its length should be at least twice the
+	 *            {@link #countPoints(ByteBuffer)}
+	 * @return Number of decoded points
+	 */
+	public static int decode(ByteBuffer aData, double[] aCoordinates) {
+		// the view shares the content, only the position is own
+		ByteBuffer data = aData.duplicate();
+		int count = readVarint(data);
+
+		int lat = 0, lng = 0;
+		for (int i = 0; i < count; i++) {
+			int value = readVarint(data);
+			lat += ((value & 1) != 0 ? ~(value >> 1) : (value >> 1));
+
+			value = readVarint(data);
+			lng += ((value & 1) != 0 ? ~(value >> 1) : (value >> 1));
+
+			aCoordinates[2 * i] = (double) lat / SCALE;
+			aCoordinates[2 * i + 1] = (double) lng / SCALE;
+		}
+		return count;
+	}
+
+	/**
+	 * Decodes the binary polyline into the sink. The buffer is read in place,
+	 * its position is not changed
+	 * 
+	 * @param aData
+	 *            Binary polyline
+	 * @param aSink
+	 *            Receiver of the points
+	 * @return Number of decoded points
+	 */
+	public static int decode(ByteBuffer aData, PolylineDecoder.Sink aSink) {
+		// the view shares the content, only the position is own
+		ByteBuffer data = aData.duplicate();
+		int count = readVarint(data);
+
+		int lat = 0, lng = 0;
+		for (int i = 0; i < count; i++) {
+			int value = readVarint(data);
+			lat += ((value & 1) != 0 ? ~(value >> 1) : (value >> 1));
+
+			value = readVarint(data);
+			lng += ((value & 1) != 0 ? ~(value >> 1) : (value >> 1));
+
+			aSink.point((double) lat / SCALE, (double) lng / SCALE);
+		}
+		return count;
+	}
+
+	/**
+	 * Writes the varint to the array
+	 * 
+	 * @param aData
+	 *            Target array
+	 * @param aPosition
+	 *            Position to write at
+	 * @param aValue
+	 *            Value. It's treated as unsigned
+	 * @return Position after the written varint
+	 */
+	private static int writeVarint(byte[] aData, int aPosition, int aValue) {
+		int position = aPosition;
+		int value = aValue;
+		while ((value & ~0x7f) != 0) {
+			aData[position++] = (byte) ((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		aData[position++] = (byte) value;
+		return position;
+	}
+
+	/**
+	 * Reads the varint from the current position of the buffer
+	 * 
+	 * @param aData
+	 *            Buffer
+	 * @return Value
+	 */
+	private static int readVarint(ByteBuffer aData) {
+		int value = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = aData.get();
+			value |= (b & 0x7f) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		return value;
+	}
+}
@@ -0,0 +1,142 @@
+/**
+ * Copyright Khmelenko Lab
+ * Author: Dmytro Khmelenko
+ */
+package com.utils;
+
+/**
+ * Decodes the encoded polylines without allocation per point
+ * 
+ * @author Dmytro Khmelenko
+ * 
+ */
+public final class PolylineDecoder {
+
+	/** Scale of the encoded coordinates: 5 decimal digits */
+	private static final double SCALE = 1E5;
+
+	/**
+	 * Receives the decoded points
+	 * 
+	 * @author Dmytro Khmelenko
+	 * 
+	 */
+	public interface Sink {
+
+		/**
+		 * Called for each decoded point in order
+		 * 
+		 * @param aLat
+		 *            Latitude in degrees
+		 * @param aLng
+		 *            Longitude in degrees
+		 */
+		public void point(double aLat, double aLng);
+	}
+
+	/**
+	 * Denied constructor
+	 */
+	private PolylineDecoder() {
+	}
+
+	/**
+	 * Counts the points of the encoded polyline without decoding them
+	 * 
+	 * @param aEncoded
+	 *            Encoded polyline
+	 * @return Number of points
+	 */
+	public static int countPoints(String aEncoded) {
+		// each value ends with the chunk without continuation bit
+		int values = 0;
+		int len = aEncoded.length();
+		for (int i = 0; i < len; i++) {
+			if (aEncoded.charAt(i) - 63 < 0x20) {
+				values++;
+			}
+		}
+		return values / 2;
+	}
+
+	/**
+	 * Decodes the polyline into the array of coordinates
+	 * 
+	 * @param aEncoded
+	 *            Encoded polyline
+	 * @param aCoordinates
+	 *            Array for the coordinates: latitude and longitude in degrees
+	 *            for each point. Its length should be at least twice the
+	 *            {@link #countPoints(String)}
+	 * @return Number of decoded points
+	 */
+	public static int decode(String aEncoded, double[] aCoordinates) {
+		int index = 0, len = aEncoded.length();
+		int lat = 0, lng = 0;
+		int count = 0;
+
+		while (index < len) {
+			int b, shift = 0, result = 0;
+			do {
+				b = aEncoded.charAt(index++) - 63;
+				result |= (b & 0x1f) << shift;
+				shift += 5;
+			} while (b >= 0x20);
+			lat += ((result & 1) != 0 ? ~(result >> 1) : (result >> 1));
+
+			shift = 0;
+			result = 0;
+			do {
+				b = aEncoded.charAt(index++) - 63;
+				result |= (b & 0x1f) << shift;
+				shift += 5;
+			} while (b >= 0x20);
+			lng += ((result & 1) != 0 ? ~(result >> 1) : (result >> 1));
+
+			aCoordinates[2 * count] = (double) lat / SCALE;
+			aCoordinates[2 * count + 1] = (double) lng / SCALE;
+			count++;
+		}
+
+		return count;
+	}
+
+	/**
+	 * Decodes the polyline into the sink
+	 * 
+	 * @param aEncoded
+	 *            Encoded polyline
+	 * @param aSink
+	 *            Receiver of the points
+	 * @return Number of decoded points
+	 */
+	public static int decode(String aEncoded, Sink aSink) {
+		int index = 0, len = aEncoded.length();
+		int lat = 0, lng = 0;
+		int count = 0;
+
+		while (index < len) {
+			int b, shift = 0, result = 0;
+			do {
+				b = aEncoded.charAt(index++) - 63;
+				result |= (b & 0x1f) << shift;
+				shift += 5;
+			} while (b >= 0x20);
+			lat += ((result & 1) != 0 ? ~(result >> 1) : (result >> 1));
+
+			shift = 0;
+			result = 0;
+			do {
+				b = aEncoded.charAt(index++) - 63;
+				result |= (b & 0x1f) << shift;
+				shift += 5;
+			} while (b >= 0x20);
+			lng += ((result & 1) != 0 ? ~(result >> 1) : (result >> 1));
+
+			aSink.point((double) lat / SCALE, (double) lng / SCALE);
+			count++;
+		}
+
+		return count;
+	}
+}
@@ -0,0 +1,256 @@
+/**
+ * Copyright Khmelenko Lab
+ * Author: Dmytro Khmelenko
+ */
+package com.utils;
+
+/**
+ * Simplifies the polyline for the map zoom levels with the Douglas-Peucker
+ * algorithm. The algorithm runs once: each point gets the largest tolerance,
+ * at which it's still kept. The points of any zoom level are selected then by
+ * comparing with the tolerance of that level. Levels are nested, the points of
+ * the lower zoom are kept on all higher zooms
+ * 
+ * @author Dmytro Khmelenko
+ * 
+ */
+public final class PolylineSimplifier {
+
+	/** Maximal zoom level of the map */
+	public static final int MAX_ZOOM = 21;
+
+	/** Allowed deviation of the simplified line in pixels */
+	private static final double TOLERANCE = 1.0;
+
+	/** Size of the map tile in pixels */
+	private static final int TILE_SIZE = 256;
+
+	/** Coordinates: latitude and longitude in degrees for each point */
+	private final double[] iCoordinates;
+
+	private final int iCount;
+
+	/**
+	 * Squared tolerance in world units, up to which the point is kept. World
+	 * size on zoom 0 is 1
+	 */
+	private final double[] iImportance;
+
+	/** Indices of the kept points for each zoom level. Built on demand */
+	private final int[][] iLevels = new int[MAX_ZOOM + 1][];
+
+	/**
+	 * Constructor
+	 * 
+	 * @param aCoordinates
+	 *            Coordinates: latitude and longitude in degrees for each
+	 *            point. The array is used as is
+	 * @param aCount
+	 *            Number of points
+	 */
+	public PolylineSimplifier(double[] aCoordinates, int aCount) {
+		iCoordinates = aCoordinates;
+		iCount = aCount;
+		iImportance = computeImportance(aCoordinates, aCount);
+	}
+
+	/**
+	 * Gets the number of points of the original polyline
+	 * 
+	 * @return Number of points
+	 */
+	public int getCount() {
+		return iCount;
+	}
+
+	/**
+	 * Gets the number of points kept on the zoom level
+	 * 
+	 * @param aZoom
+	 *            Zoom level
+	 * @return Number of points
+	 */
+	public int getCount(int aZoom) {
+		return getLevel(aZoom).length;
+	}
+
+	/**
+	 * Passes the points kept on the zoom level to the sink
+	 * 
+	 * @param aZoom
+	 *            Zoom level. It's clamped to the supported range
+	 * @param aSink
+	 *            Receiver of the points
+	 * @return Number of points
+	 */
+	public int getPoints(int aZoom, PolylineDecoder.Sink aSink) {
+		int[] level = getLevel(aZoom);
+		for (int index : level) {
+			aSink.point(iCoordinates[2 * index], iCoordinates[2 * index + 1]);
+		}
+		return level.length;
+	}
+
+	/**
+	 * Converts the camera zoom to the zoom level. The level is rounded up, so
+	 * the deviation never exceeds the tolerance
+	 * 
+	 * @param aZoom
+	 *            Camera zoom
+	 * @return Zoom level
+	 */
+	public static int toZoomLevel(float aZoom) {
+		int zoom = (int) Math.ceil(aZoom);
+		return Math.max(0, Math.min(MAX_ZOOM, zoom));
+	}
+
+	/**
+	 * Gets the indices of the points kept on the zoom level
+	 * 
+	 * @param aZoom
+	 *            Zoom level
+	 * @return Indices of the points
+	 */
+	private synchronized int[] getLevel(int aZoom) {
+		int zoom = Math.max(0, Math.min(MAX_ZOOM, aZoom));
+		if (iLevels[zoom] != null) {
+			return iLevels[zoom];
+		}
+
+		double tolerance = TOLERANCE / ((double) TILE_SIZE * (1 << zoom));
+		double squared = tolerance * tolerance;
+
+		int count = 0;
+		for (int i = 0; i < iCount; i++) {
+			if (iImportance[i] >= squared) {
+				count++;
+			}
+		}
+
+		int[] level = new int[count];
+		count = 0;
+		for (int i = 0; i < iCount; i++) {
+			if (iImportance[i] >= squared) {
+				level[count++] = i;
+			}
+		}
+
+		iLevels[zoom] = level;
+		return level;
+	}
+
+	/**
+	 * Runs the Douglas-Peucker algorithm over the whole polyline and records
+	 * the tolerance of each point. The tolerance of the point is limited by
+	 * the one of its parent, so the levels are nested
+	 * 
+	 * @param aCoordinates
+	 *            Coordinates in degrees
+	 * @param aCount
+	 *            Number of points
+	 * @return Squared tolerances in world units
+	 */
+	private static double[] computeImportance(double[] aCoordinates,
+			int aCount) {
+		double[] importance = new double[aCount];
+		if (aCount == 0) {
+			return importance;
+		}
+
+		// the distances are measured in the map projection
+		double[] x = new double[aCount];
+		double[] y = new double[aCount];
+		for (int i = 0; i < aCount; i++) {
+			x[i] = aCoordinates[2 * i + 1] / 360 + 0.5;
+			double sin = Math.sin(Math.toRadians(aCoordinates[2 * i]));
+			// the poles are out of the map
+			sin = Math.max(-0.9999, Math.min(0.9999, sin));
+			y[i] = 0.5 - Math.log((1 + sin) / (1 - sin)) / (4 * Math.PI);
+		}
+
+		// the end points are always kept
+		importance[0] = Double.POSITIVE_INFINITY;
+		importance[aCount - 1] = Double.POSITIVE_INFINITY;
+
+		// segments to process, no recursion for the long routes
+		int[] firsts = new int[aCount];
+		int[] lasts = new int[aCount];
+		double[] limits = new double[aCount];
+		int size = 0;
+
+		firsts[size] = 0;
+		lasts[size] = aCount - 1;
+		limits[size] = Double.POSITIVE_INFINITY;
+		size++;
+
+		while (size > 0) {
+			size--;
+			int first = firsts[size];
+			int last = lasts[size];
+			double limit = limits[size];
+
+			int farthest = -1;
+			double max = -1;
+			for (int i = first + 1; i < last; i++) {
+				double distance = segmentDistance(x[i], y[i], x[first],
+						y[first], x[last], y[last]);
+				if (distance > max) {
+					max = distance;
+					farthest = i;
+				}
+			}
+			if (farthest < 0) {
+				continue;
+			}
+
+			double value = Math.min(max, limit);
+			importance[farthest] = value;
+
+			firsts[size] = first;
+			lasts[size] = farthest;
+			limits[size] = value;
+			size++;
+
+			firsts[size] = farthest;
+			lasts[size] = last;
+			limits[size] = value;
+			size++;
+		}
+
+		return importance;
+	}
+
+	/**
+	 * Calculates the squared distance from the point to the segment
+	 * 
+	 * @param aX
+	 *            X of the point
+	 * @param aY
+	 *            Y of the point
+	 * @param aX1
+	 *            X of the segment start
+	 * @param aY1
+	 *            Y of the segment start
+	 * @param aX2
+	 *            X of the segment end
+	 * @param aY2
+	 *            Y of the segment end
+	 * @return Squared distance
+	 */
+	private static double segmentDistance(double aX, double aY, double aX1,
+			double aY1, double aX2, double aY2) {
+		double dx = aX2 - aX1;
+		double dy = aY2 - aY1;
+		double length = dx * dx + dy * dy;
+
+		double t = 0;
+		if (length > 0) {
+			t = ((aX - aX1) * dx + (aY - aY1) * dy) / length;
+			t = Math.max(0, Math.min(1, t));
+		}
+
+		double px = aX1 + t * dx - aX;
+		double py = aY1 + t * dy - aY;
+		return px * px + py * py;
+	}
+}